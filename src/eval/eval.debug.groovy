@@ -24,6 +24,8 @@ tagConfig = {
     // need tag vocab & item DAO to be roots for diversity metric to use them
     config.addRoot ItemTagDAO
     config.addRoot TagVocabulary
+    // training-item bitmaps shared by the top-N candidate selectors
+    config.addRoot TrainingItemBitmaps
 }
 
 // Run a train-test evaluation
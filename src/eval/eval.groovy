@@ -1,6 +1,7 @@
 import edu.umn.cs.recsys.*
 import edu.umn.cs.recsys.cbf.LuceneItemItemModel
 import edu.umn.cs.recsys.dao.*
+import edu.umn.cs.recsys.eval.ColumnarUserOutputMetric
 import org.grouplens.lenskit.*
 import org.grouplens.lenskit.baseline.*
 import org.grouplens.lenskit.data.dao.ItemDAO
@@ -24,6 +25,9 @@ tagConfig = {
     // need tag vocab & item DAO to be roots for diversity metric to use them
     config.addRoot ItemTagDAO
     config.addRoot TagVocabulary
+    config.addRoot ItemTagMatrix
+    // training-item bitmaps shared by the top-N candidate selectors
+    config.addRoot TrainingItemBitmaps
 }
 
 // Run a train-test evaluation
@@ -49,24 +53,48 @@ trainTest {
         partitions 5
     }
 
-    // Three different types of output for analysis.
+    // Global results go to CSV.  Per-user results are written by ColumnarUserOutputMetric in a
+    // compact columnar format off the evaluation threads; recreate eval-user.csv with
+    //   java edu.umn.cs.recsys.eval.ColumnarResultReader eval-user.lkur eval-user.csv
     output "${project.config.analysisDir}/eval-results.csv"
-    userOutput "${project.config.analysisDir}/eval-user.csv"
-    metric CoveragePredictMetric
 
-metric RMSEPredictMetric
-metric NDCGPredictMetric
+    metric new ColumnarUserOutputMetric(
+            new File("${project.config.analysisDir}/eval-user.lkur"), ["NNbrs"],
+            new CoveragePredictMetric(),
+            new RMSEPredictMetric(),
+            new NDCGPredictMetric(),
+            // Compute nDCG trying to recommend lists of 10 from all items
+            // This suffers from similar problems as the unary ratings case!
+            topNnDCG {
+                candidates BitmapItemSelectors.untrainedItems()
+                exclude BitmapItemSelectors.noItems()
+                listSize 10
+            },
+            // The same measures over each user's test items plus 100 sampled negatives,
+            // which keeps per-user cost independent of catalog size
+            topNnDCG {
+                candidates SampledItemSelector.uniform(100, 42L)
+                exclude BitmapItemSelectors.noItems()
+                listSize 10
+                label "Sampled.TopN.nDCG"
+            },
+            // measure the entropy of the top 10 items
+            new TagEntropyMetric(10),
+            new TagEntropyMetric("Sampled", 10, SampledItemSelector.uniform(100, 42L),
+                                 BitmapItemSelectors.noItems()),
+            // recall of the test items rated 4 or more, against uniform and
+            // popularity-stratified (10 strata) negatives
+            new TopNRecallMetric("Sampled", 10, SampledItemSelector.uniform(100, 42L),
+                                 BitmapItemSelectors.noItems(), 4.0),
+            new TopNRecallMetric("Stratified", 10, SampledItemSelector.stratified(100, 10, 42L),
+                                 BitmapItemSelectors.noItems(), 4.0),
+            // intra-list similarity, tag coverage and novelty at several list sizes
+            new ListDiversityMetric(5, 10, 20))
 
-// Compute nDCG trying to recommend lists of 10 from all items
-// This suffers from similar problems as the unary ratings case!
-metric topNnDCG {
-    candidates ItemSelectors.allItems()
-    exclude ItemSelectors.trainingItems()
-    listSize 10
-}
-
-    // measure the entropy of the top 10 items
-    metric new TagEntropyMetric(10)
+    // estimated memory retained by each algorithm's components
+    metric FootprintMetric
+    // accuracy at every neighborhood size from UserUserSweep's prediction pass
+    metric new NeighborhoodSweepMetric(5, 10, 15, 20, 25, 30, 40, 50, 75, 100)
 
     algorithm("GlobalMean") {
         include tagConfig
@@ -87,11 +115,37 @@ metric topNnDCG {
         // score items by their mean rating
         bind ItemScorer to ItemMeanRatingItemScorer
     }
+    algorithm("ItemMeanDiverse") {
+        include tagConfig
+        // score items by their mean rating, then rerank the top 100 for tag diversity
+        bind ItemScorer to ItemMeanRatingItemScorer
+        bind ItemRecommender to TagDiversityItemRecommender
+        set DiversityWeight to 0.5
+        set RerankPoolSize to 100
+    }
     algorithm("PersMean") {
         include tagConfig
         bind ItemScorer to UserMeanItemScorer
         bind (UserMeanBaseline, ItemScorer) to ItemMeanRatingItemScorer
     }
+    algorithm("TagProfile") {
+        include tagConfig
+        // content-based scoring against each user's weighted tag profile
+        bind ItemScorer to TagProfileItemScorer
+        // scores are cosines, not ratings
+        bind RatingPredictor to null
+    }
+    // UserUserNorm's configuration on the sweep scorer, built once at 100 neighbors;
+    // NeighborhoodSweepMetric reports its accuracy at every smaller size from the same pass
+    algorithm("UserUserSweep") {
+        include tagConfig
+        attributes["NNbrs"] = 100
+        bind ItemScorer to SweepUserUserItemScorer
+        set NeighborhoodSize to 100
+        bind VectorNormalizer to MeanCenteringVectorNormalizer
+        bind VectorSimilarity to PearsonCorrelation
+    }
+
     for (nnbrs in [5, 10, 15, 20, 25, 30, 40, 50, 75, 100]) {
         algorithm("UserUser") {
             include tagConfig
@@ -0,0 +1,87 @@
+package edu.umn.cs.recsys;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import org.grouplens.lenskit.Recommender;
+import org.grouplens.lenskit.core.LenskitRecommender;
+import org.grouplens.lenskit.eval.metrics.topn.ItemSelector;
+import org.grouplens.lenskit.eval.metrics.topn.ItemSelectors;
+import org.grouplens.lenskit.eval.traintest.TestUser;
+
+import javax.annotation.Nullable;
+
+/**
+ * Item selectors backed by {@link TrainingItemBitmaps}.  Selecting all items and excluding the
+ * training items is expressed as a single candidate set, {@link #untrainedItems()}, with
+ * {@link #noItems()} as the exclude set, so no per-user hash sets are built.
+ *
+ * <p>The bitmaps should be available from the recommender, so configurations using these
+ * selectors should {@code config.addRoot TrainingItemBitmaps}.  Without them,
+ * {@link #untrainedItems()} falls back to the hash-set difference of {@code allItems()} and
+ * {@code trainingItems()}.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public final class BitmapItemSelectors {
+    private BitmapItemSelectors() {}
+
+    /**
+     * Select all items the user did not rate in training.  Equivalent to selecting
+     * {@code allItems()} and excluding {@code trainingItems()}.
+     * @return The item selector.
+     */
+    public static ItemSelector untrainedItems() {
+        return UntrainedItems.INSTANCE;
+    }
+
+    /**
+     * Select no items, for use as the exclude set with {@link #untrainedItems()}.
+     * @return The item selector.
+     */
+    public static ItemSelector noItems() {
+        return NoItems.INSTANCE;
+    }
+
+    private static enum UntrainedItems implements ItemSelector {
+        INSTANCE;
+
+        @Override
+        public LongSet select(TestUser user) {
+            TrainingItemBitmaps bitmaps = getBitmaps(user);
+            if (bitmaps != null) {
+                return bitmaps.getUntrainedItems(user.getUserId());
+            }
+            LongSet items = new LongOpenHashSet(ItemSelectors.allItems().select(user));
+            items.removeAll(ItemSelectors.trainingItems().select(user));
+            return items;
+        }
+    }
+
+    /**
+     * Get the training bitmaps from a test user's recommender.
+     * @return The bitmaps, or {@code null} if they are not in the recommender's graph.
+     */
+    @Nullable
+    static TrainingItemBitmaps getBitmaps(TestUser user) {
+        Recommender rec = user.getRecommender();
+        if (!(rec instanceof LenskitRecommender)) {
+            return null;
+        }
+        try {
+            return ((LenskitRecommender) rec).get(TrainingItemBitmaps.class);
+        } catch (RuntimeException e) {
+            // not configured as a root of this algorithm
+            return null;
+        }
+    }
+
+    private static enum NoItems implements ItemSelector {
+        INSTANCE;
+
+        @Override
+        public LongSet select(TestUser user) {
+            return LongSets.EMPTY_SET;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package edu.umn.cs.recsys;
+
+import org.grouplens.grapht.annotation.DefaultDouble;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter annotation for the weight given to tag-entropy gain when reranking for diversity.
+ * 0 ranks purely by score.
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+@Qualifier
+@Parameter(Double.class)
+@DefaultDouble(0.5)
+public @interface DiversityWeight {
+}
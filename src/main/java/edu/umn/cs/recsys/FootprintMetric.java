@@ -0,0 +1,123 @@
+package edu.umn.cs.recsys;
+
+import com.google.common.collect.ImmutableList;
+import edu.umn.cs.recsys.dao.ItemTagDAO;
+import org.grouplens.lenskit.ItemScorer;
+import org.grouplens.lenskit.Recommender;
+import org.grouplens.lenskit.core.LenskitRecommender;
+import org.grouplens.lenskit.data.dao.EventDAO;
+import org.grouplens.lenskit.eval.algorithm.AlgorithmInstance;
+import org.grouplens.lenskit.eval.data.traintest.TTDataSet;
+import org.grouplens.lenskit.eval.metrics.AbstractTestUserMetric;
+import org.grouplens.lenskit.eval.metrics.TestUserMetricAccumulator;
+import org.grouplens.lenskit.eval.traintest.TestUser;
+import org.grouplens.lenskit.knn.item.model.ItemItemModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * A metric that reports the memory footprint of an algorithm's components.  It keeps the
+ * recommender it is evaluated with and inspects it once all test users have been evaluated, so
+ * caches and other state filled while scoring are included.  It sums the estimates of every
+ * component implementing {@link MemoryFootprint}, logs each component's figures, and reports
+ * the totals as global columns so they are exported with the accuracy results.
+ *
+ * <p>In the train-test evaluator, {@code EventDAO} is bound to the evaluator's DAO for the
+ * training split, which does not report a footprint, so rating storage is not included here.
+ * The {@link edu.umn.cs.recsys.dao.MOOCRatingDAO} rating cache is measured by the load test,
+ * where that DAO is bound, through {@link #measure(String, LenskitRecommender)}.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class FootprintMetric extends AbstractTestUserMetric {
+    private static final Logger logger = LoggerFactory.getLogger(FootprintMetric.class);
+    private static final List<String> COLUMNS =
+            ImmutableList.of("Footprint.Bytes", "Footprint.Entries");
+
+    /**
+     * The component types to inspect.  Components that are not in an algorithm's graph are
+     * skipped.
+     */
+    private static final List<Class<?>> COMPONENTS = ImmutableList.<Class<?>>of(
+            EventDAO.class, ItemTagDAO.class, TagVocabulary.class, ItemScorer.class,
+            ItemItemModel.class, ItemTagMatrix.class, TrainingItemBitmaps.class);
+
+    @Override
+    public TestUserMetricAccumulator makeAccumulator(AlgorithmInstance algorithm, TTDataSet data) {
+        return new Accumulator(algorithm.getName());
+    }
+
+    @Override
+    public List<String> getColumnLabels() {
+        return COLUMNS;
+    }
+
+    @Override
+    public List<String> getUserColumnLabels() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Measure a recommender's components, logging each component's figures and the totals.
+     * @param algorithm The algorithm name to log.
+     * @param rec The recommender.
+     * @return The estimated retained bytes and the entry count.
+     */
+    public static long[] measure(String algorithm, LenskitRecommender rec) {
+        long bytes = 0;
+        long entries = 0;
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (Class<?> type: COMPONENTS) {
+            Object component;
+            try {
+                component = rec.get(type);
+            } catch (RuntimeException e) {
+                // not configured for this algorithm
+                continue;
+            }
+            if (component instanceof MemoryFootprint && seen.add(component)) {
+                MemoryFootprint fp = (MemoryFootprint) component;
+                long size = fp.getRetainedSizeEstimate();
+                long count = fp.getEntryCount();
+                logger.info("{}: {} retains ~{} bytes in {} entries",
+                            algorithm, component.getClass().getSimpleName(), size, count);
+                bytes += size;
+                entries += count;
+            }
+        }
+        logger.info("{}: total footprint ~{} bytes in {} entries", algorithm, bytes, entries);
+        return new long[]{bytes, entries};
+    }
+
+    private static class Accumulator implements TestUserMetricAccumulator {
+        private final String algorithm;
+        private Recommender recommender;
+
+        Accumulator(String algo) {
+            algorithm = algo;
+        }
+
+        @Nonnull
+        @Override
+        public Object[] evaluate(TestUser testUser) {
+            if (recommender == null) {
+                recommender = testUser.getRecommender();
+            }
+            return new Object[0];
+        }
+
+        @Nonnull
+        @Override
+        public Object[] finalResults() {
+            if (!(recommender instanceof LenskitRecommender)) {
+                return new Object[COLUMNS.size()];
+            }
+            long[] totals = measure(algorithm, (LenskitRecommender) recommender);
+            recommender = null;
+            return new Object[]{totals[0], totals[1]};
+        }
+    }
+}
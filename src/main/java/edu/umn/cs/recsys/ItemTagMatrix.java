@@ -0,0 +1,272 @@
+package edu.umn.cs.recsys;
+
+import edu.umn.cs.recsys.dao.ItemTagDAO;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.grouplens.lenskit.core.Shareable;
+import org.grouplens.lenskit.core.Transient;
+import org.grouplens.lenskit.cursors.Cursor;
+import org.grouplens.lenskit.data.dao.EventDAO;
+import org.grouplens.lenskit.data.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A precomputed binary item&times;tag matrix in compressed sparse row (CSR) form, along with
+ * each item's rating popularity.  Rows are items (in increasing ID order) and columns are
+ * {@link TagVocabulary} tag IDs; each row holds the item's distinct tags, sorted.  The transpose
+ * is kept as a tag&rarr;item inverted index.  This is built once and shared by the list metrics
+ * and content-based scorers so they do not repeat tag lookups for every user.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Shareable
+@DefaultProvider(ItemTagMatrix.Builder.class)
+public class ItemTagMatrix implements Serializable, MemoryFootprint {
+    private static final long serialVersionUID = 1L;
+
+    private final long[] itemIds;
+    private final int[] rowStart;
+    private final int[] tagIds;
+    private final int tagCount;
+    private final double[] novelty;
+    private final int[] tagStart;
+    private final int[] tagItemRows;
+
+    private ItemTagMatrix(long[] items, int[] rows, int[] tags, int ntags, double[] nov) {
+        itemIds = items;
+        rowStart = rows;
+        tagIds = tags;
+        tagCount = ntags;
+        novelty = nov;
+
+        // transpose into a tag -> item row inverted index
+        tagStart = new int[ntags + 2];
+        for (int tag: tags) {
+            tagStart[tag + 1] += 1;
+        }
+        for (int t = 1; t < tagStart.length; t++) {
+            tagStart[t] += tagStart[t - 1];
+        }
+        tagItemRows = new int[tags.length];
+        int[] fill = Arrays.copyOf(tagStart, ntags + 1);
+        for (int row = 0; row < items.length; row++) {
+            for (int p = rows[row]; p < rows[row + 1]; p++) {
+                tagItemRows[fill[tags[p]]++] = row;
+            }
+        }
+    }
+
+    /**
+     * Get the number of item rows.
+     * @return The number of items in the matrix.
+     */
+    public int getItemCount() {
+        return itemIds.length;
+    }
+
+    /**
+     * Get the number of tags in the vocabulary.  Tag IDs range from 1 to this count.
+     * @return The tag count.
+     */
+    public int getTagCount() {
+        return tagCount;
+    }
+
+    /**
+     * Get the row index of an item.
+     * @param item The item ID.
+     * @return The item's row, or a negative value if the item is not in the matrix.
+     */
+    public int getItemIndex(long item) {
+        return Arrays.binarySearch(itemIds, item);
+    }
+
+    /**
+     * Get the item ID of a row.
+     * @param row The item row.
+     * @return The item ID.
+     */
+    public long getItemId(int row) {
+        return itemIds[row];
+    }
+
+    /**
+     * Get the number of non-zero entries (item-tag pairs) in the matrix.
+     * @return The entry count.
+     */
+    @Override
+    public long getEntryCount() {
+        return tagIds.length;
+    }
+
+    /**
+     * Get the start of a row in the {@linkplain #getTag(int) tag array}.
+     * @param row The item row.
+     * @return The position of the row's first tag.
+     */
+    public int getRowStart(int row) {
+        return rowStart[row];
+    }
+
+    /**
+     * Get the end (exclusive) of a row in the {@linkplain #getTag(int) tag array}.
+     * @param row The item row.
+     * @return The position after the row's last tag.
+     */
+    public int getRowEnd(int row) {
+        return rowStart[row + 1];
+    }
+
+    /**
+     * Get the tag at a position in the tag array.
+     * @param pos The position, between a row's start and end.
+     * @return The tag ID.
+     */
+    public int getTag(int pos) {
+        return tagIds[pos];
+    }
+
+    /**
+     * Get the start of a tag's posting list in the {@linkplain #getPostingRow(int) inverted
+     * index}.
+     * @param tag The tag ID.
+     * @return The position of the first item row with the tag.
+     */
+    public int getPostingStart(int tag) {
+        return tagStart[tag];
+    }
+
+    /**
+     * Get the end (exclusive) of a tag's posting list.
+     * @param tag The tag ID.
+     * @return The position after the last item row with the tag.
+     */
+    public int getPostingEnd(int tag) {
+        return tagStart[tag + 1];
+    }
+
+    /**
+     * Get the item row at a position in the inverted index.
+     * @param pos The position, between a tag's posting start and end.
+     * @return The item row.
+     */
+    public int getPostingRow(int pos) {
+        return tagItemRows[pos];
+    }
+
+    /**
+     * Get an item's novelty, the self-information {@code -log2(p)} of a user having rated it.
+     * @param row The item row.
+     * @return The item's novelty in bits.
+     */
+    public double getNovelty(int row) {
+        return novelty[row];
+    }
+
+    /**
+     * Compute the cosine similarity of two items' binary tag vectors.
+     * @param r1 The first item row.
+     * @param r2 The second item row.
+     * @return The cosine similarity, or 0 if either item has no tags.
+     */
+    public double cosine(int r1, int r2) {
+        int i = rowStart[r1], iEnd = rowStart[r1 + 1];
+        int j = rowStart[r2], jEnd = rowStart[r2 + 1];
+        int n1 = iEnd - i, n2 = jEnd - j;
+        if (n1 == 0 || n2 == 0) {
+            return 0;
+        }
+        int common = 0;
+        while (i < iEnd && j < jEnd) {
+            int t1 = tagIds[i], t2 = tagIds[j];
+            if (t1 == t2) {
+                common++;
+                i++;
+                j++;
+            } else if (t1 < t2) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return common / Math.sqrt((double) n1 * n2);
+    }
+
+    @Override
+    public long getRetainedSizeEstimate() {
+        return MemoryEstimates.OBJECT_HEADER
+                + MemoryEstimates.array(itemIds.length, 8)
+                + MemoryEstimates.array(rowStart.length, 4)
+                + MemoryEstimates.array(tagIds.length, 4)
+                + MemoryEstimates.array(novelty.length, 8)
+                + MemoryEstimates.array(tagStart.length, 4)
+                + MemoryEstimates.array(tagItemRows.length, 4);
+    }
+
+    public static class Builder implements Provider<ItemTagMatrix> {
+        private final ItemTagDAO tagDAO;
+        private final TagVocabulary vocab;
+        private final EventDAO eventDAO;
+
+        @Inject
+        public Builder(@Transient ItemTagDAO tdao, @Transient TagVocabulary vocab,
+                       @Transient EventDAO edao) {
+            tagDAO = tdao;
+            this.vocab = vocab;
+            eventDAO = edao;
+        }
+
+        @Override
+        public ItemTagMatrix get() {
+            long[] items = tagDAO.getItemIds().toLongArray();
+            Arrays.sort(items);
+
+            int[] rows = new int[items.length + 1];
+            IntArrayList tags = new IntArrayList();
+            int[] stamp = new int[vocab.size() + 1];
+            for (int i = 0; i < items.length; i++) {
+                rows[i] = tags.size();
+                for (String tag: tagDAO.getItemTags(items[i])) {
+                    if (vocab.hasTag(tag)) {
+                        int tid = (int) vocab.getTagId(tag);
+                        if (stamp[tid] != i + 1) {
+                            stamp[tid] = i + 1;
+                            tags.add(tid);
+                        }
+                    }
+                }
+                Arrays.sort(tags.elements(), rows[i], tags.size());
+            }
+            rows[items.length] = tags.size();
+
+            Long2IntMap counts = new Long2IntOpenHashMap();
+            LongSet users = new LongOpenHashSet();
+            Cursor<Event> stream = eventDAO.streamEvents();
+            try {
+                for (Event e: stream) {
+                    counts.put(e.getItemId(), counts.get(e.getItemId()) + 1);
+                    users.add(e.getUserId());
+                }
+            } finally {
+                stream.close();
+            }
+            double[] novelty = new double[items.length];
+            double nusers = users.size();
+            for (int i = 0; i < items.length; i++) {
+                // smooth so unrated items have finite novelty
+                double p = (counts.get(items[i]) + 1) / (nusers + 1);
+                novelty[i] = -Math.log(p) / Math.log(2);
+            }
+
+            return new ItemTagMatrix(items, rows, tags.toIntArray(), vocab.size(), novelty);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package edu.umn.cs.recsys;
+
+import com.google.common.collect.ImmutableList;
+import org.grouplens.lenskit.core.LenskitRecommender;
+import org.grouplens.lenskit.eval.algorithm.AlgorithmInstance;
+import org.grouplens.lenskit.eval.data.traintest.TTDataSet;
+import org.grouplens.lenskit.eval.metrics.AbstractTestUserMetric;
+import org.grouplens.lenskit.eval.metrics.TestUserMetricAccumulator;
+import org.grouplens.lenskit.eval.metrics.topn.ItemSelector;
+import org.grouplens.lenskit.eval.traintest.TestUser;
+import org.grouplens.lenskit.scored.ScoredId;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A family of list-diversity metrics computed together from a shared {@link ItemTagMatrix}:
+ * intra-list similarity (mean pairwise tag cosine), tag coverage (fraction of the vocabulary
+ * covered), and novelty (mean item self-information), each at several list sizes.  One pass
+ * over the longest list produces every column; the shorter cutoffs are prefixes of that pass.
+ *
+ * <p>The matrix must be available from the recommender, so configurations using this metric
+ * need {@code config.addRoot ItemTagMatrix}.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class ListDiversityMetric extends AbstractTestUserMetric {
+    private final int[] listSizes;
+    private final ItemSelector candidates;
+    private final ItemSelector exclude;
+    private final List<String> columns;
+
+    /**
+     * Construct a new list diversity metric.
+     *
+     * @param sizes The list sizes to measure at.  The longest is the number of items requested.
+     */
+    public ListDiversityMetric(int... sizes) {
+        this(null, BitmapItemSelectors.untrainedItems(), BitmapItemSelectors.noItems(), sizes);
+    }
+
+    /**
+     * Construct a new list diversity metric over a custom candidate set, such as a
+     * {@link SampledItemSelector}.
+     *
+     * @param prefix A prefix for the column labels (e.g. {@code "Sampled"}), or {@code null}.
+     * @param candidates The candidate items to recommend from.
+     * @param exclude The items to exclude from the candidates.
+     * @param sizes The list sizes to measure at.
+     */
+    public ListDiversityMetric(String prefix, ItemSelector candidates, ItemSelector exclude,
+                               int... sizes) {
+        if (sizes.length == 0) {
+            throw new IllegalArgumentException("no list sizes specified");
+        }
+        listSizes = sizes.clone();
+        Arrays.sort(listSizes);
+        this.candidates = candidates;
+        this.exclude = exclude;
+        String pfx = prefix == null ? "" : prefix + ".";
+        ImmutableList.Builder<String> cols = ImmutableList.builder();
+        for (int n: listSizes) {
+            cols.add(String.format("%sILS@%d", pfx, n));
+            cols.add(String.format("%sTagCoverage@%d", pfx, n));
+            cols.add(String.format("%sNovelty@%d", pfx, n));
+        }
+        columns = cols.build();
+    }
+
+    @Override
+    public TestUserMetricAccumulator makeAccumulator(AlgorithmInstance algorithm, TTDataSet data) {
+        return new Accumulator();
+    }
+
+    @Override
+    public List<String> getColumnLabels() {
+        return columns;
+    }
+
+    @Override
+    public List<String> getUserColumnLabels() {
+        return columns;
+    }
+
+    private class Accumulator implements TestUserMetricAccumulator {
+        private final int maxSize = listSizes[listSizes.length - 1];
+        private final double[] totals = new double[columns.size()];
+        private int userCount = 0;
+
+        // scratch space reused across users
+        private final int[] rows = new int[maxSize];
+        private int[] stamp;
+        private int serial = 0;
+
+        @Nonnull
+        @Override
+        public Object[] evaluate(TestUser testUser) {
+            List<ScoredId> recommendations =
+                    testUser.getRecommendations(maxSize, candidates, exclude);
+            if (recommendations == null) {
+                return new Object[columns.size()];
+            }
+
+            LenskitRecommender lkrec = (LenskitRecommender) testUser.getRecommender();
+            ItemTagMatrix matrix = lkrec.get(ItemTagMatrix.class);
+            if (stamp == null || stamp.length <= matrix.getTagCount()) {
+                stamp = new int[matrix.getTagCount() + 1];
+            }
+            serial += 1;
+
+            Object[] values = new Object[columns.size()];
+            int n = Math.min(recommendations.size(), maxSize);
+            int cutoff = 0;
+            int covered = 0;
+            double simSum = 0;
+            double novSum = 0;
+            for (int j = 0; j < n; j++) {
+                int row = matrix.getItemIndex(recommendations.get(j).getId());
+                rows[j] = row;
+                if (row >= 0) {
+                    for (int p = matrix.getRowStart(row), end = matrix.getRowEnd(row); p < end; p++) {
+                        int tag = matrix.getTag(p);
+                        if (stamp[tag] != serial) {
+                            stamp[tag] = serial;
+                            covered++;
+                        }
+                    }
+                    novSum += matrix.getNovelty(row);
+                    for (int i = 0; i < j; i++) {
+                        if (rows[i] >= 0) {
+                            simSum += matrix.cosine(rows[i], row);
+                        }
+                    }
+                }
+                while (cutoff < listSizes.length && listSizes[cutoff] == j + 1) {
+                    record(values, cutoff, j + 1, simSum, covered, novSum, matrix);
+                    cutoff++;
+                }
+            }
+            // lists shorter than a cutoff are measured over the items they have
+            while (cutoff < listSizes.length) {
+                record(values, cutoff, n, simSum, covered, novSum, matrix);
+                cutoff++;
+            }
+
+            for (int c = 0; c < totals.length; c++) {
+                totals[c] += (Double) values[c];
+            }
+            userCount += 1;
+            return values;
+        }
+
+        private void record(Object[] values, int cutoff, int len, double simSum, int covered,
+                            double novSum, ItemTagMatrix matrix) {
+            long pairs = (long) len * (len - 1) / 2;
+            values[cutoff * 3] = pairs > 0 ? simSum / pairs : 0.0;
+            values[cutoff * 3 + 1] = matrix.getTagCount() > 0
+                    ? (double) covered / matrix.getTagCount()
+                    : 0.0;
+            values[cutoff * 3 + 2] = len > 0 ? novSum / len : 0.0;
+        }
+
+        @Nonnull
+        @Override
+        public Object[] finalResults() {
+            Object[] results = new Object[totals.length];
+            for (int c = 0; c < totals.length; c++) {
+                results[c] = totals[c] / userCount;
+            }
+            return results;
+        }
+    }
+}
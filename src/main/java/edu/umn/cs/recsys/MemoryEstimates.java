@@ -0,0 +1,64 @@
+package edu.umn.cs.recsys;
+
+import java.util.Collection;
+
+/**
+ * Size estimates for common data structures, used to implement {@link MemoryFootprint}.
+ * Figures assume a 64-bit JVM without compressed references.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public final class MemoryEstimates {
+    public static final long OBJECT_HEADER = 16;
+    public static final long ARRAY_HEADER = 24;
+    public static final long REFERENCE = 8;
+    /** A boxed {@link Long} or {@link Double}. */
+    public static final long BOXED_WORD = 24;
+
+    private MemoryEstimates() {}
+
+    /**
+     * Estimate the size of an array.
+     * @param length The array length.
+     * @param elementSize The size of each element (or {@link #REFERENCE} for object arrays).
+     * @return The estimated size in bytes.
+     */
+    public static long array(long length, long elementSize) {
+        return ARRAY_HEADER + length * elementSize;
+    }
+
+    /**
+     * Estimate the size of a string, including its character array.
+     * @param s The string.
+     * @return The estimated size in bytes.
+     */
+    public static long string(String s) {
+        return OBJECT_HEADER + 24 + array(s.length(), 2);
+    }
+
+    /**
+     * Estimate the size of the strings in a collection, not counting the collection itself.
+     * @param strings The strings.
+     * @return The estimated size in bytes.
+     */
+    public static long strings(Collection<String> strings) {
+        long size = 0;
+        for (String s: strings) {
+            size += string(s);
+        }
+        return size;
+    }
+
+    /**
+     * Estimate the table size of a fastutil open hash map or set (default load factor).
+     * @param entries The number of entries.
+     * @param keySize The size of each key slot.
+     * @param valueSize The size of each value slot (0 for sets).
+     * @return The estimated size in bytes, excluding any objects the values point to.
+     */
+    public static long openHash(long entries, long keySize, long valueSize) {
+        long capacity = Long.highestOneBit(Math.max(2, (long) Math.ceil(entries / 0.75)) * 2 - 1);
+        return OBJECT_HEADER + 48 + array(capacity, keySize) + array(capacity, valueSize)
+                + array(capacity, 1);
+    }
+}
@@ -0,0 +1,25 @@
+package edu.umn.cs.recsys;
+
+/**
+ * Interface for components that can report how much memory they retain.  The sizes are
+ * estimates from the component's own data structures (assuming a 64-bit JVM), meant for heap
+ * sizing and for comparing data structure choices, not exact measurements.
+ *
+ * @see MemoryEstimates
+ * @see FootprintMetric
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public interface MemoryFootprint {
+    /**
+     * Estimate the memory retained by this component.  Caches that have not been loaded yet
+     * count as empty.
+     * @return The estimated retained size, in bytes.
+     */
+    long getRetainedSizeEstimate();
+
+    /**
+     * Get the number of entries (items, tags, events, etc.) the component holds.
+     * @return The entry count.
+     */
+    long getEntryCount();
+}
@@ -0,0 +1,133 @@
+package edu.umn.cs.recsys;
+
+import com.google.common.collect.ImmutableList;
+import org.grouplens.lenskit.ItemScorer;
+import org.grouplens.lenskit.data.pref.PreferenceDomain;
+import org.grouplens.lenskit.eval.algorithm.AlgorithmInstance;
+import org.grouplens.lenskit.eval.data.traintest.TTDataSet;
+import org.grouplens.lenskit.eval.metrics.AbstractTestUserMetric;
+import org.grouplens.lenskit.eval.metrics.TestUserMetricAccumulator;
+import org.grouplens.lenskit.eval.traintest.TestUser;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measure prediction accuracy at several neighborhood sizes from a single scoring pass of a
+ * {@link SweepUserUserItemScorer}.  For each size it reports the mean per-user RMSE and the
+ * prediction coverage; algorithms using any other scorer get empty columns.  As with the predict
+ * metrics, scores are clamped to the data set's preference domain, when it has one, before
+ * computing errors.
+ *
+ * <p>The scorer keeps the neighbor lists it built while predicting the user's test ratings, so
+ * the sweep reads every size off those lists rather than scoring the user again.  The largest
+ * size must not exceed the scorer's {@code NeighborhoodSize}, or the user is scored a second time.
+ *
+ * <p>The train-test evaluator writes one row per algorithm, so the sweep appears as a column
+ * group per size (e.g. {@code RMSE@10nbrs}) in the sweep algorithm's row rather than as separate
+ * algorithm rows.  It has no per-user columns.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class NeighborhoodSweepMetric extends AbstractTestUserMetric {
+    private final int[] sizes;
+    private final List<String> columns;
+
+    /**
+     * Construct a new sweep metric.
+     * @param nnbrs The neighborhood sizes to evaluate.
+     */
+    public NeighborhoodSweepMetric(int... nnbrs) {
+        if (nnbrs.length == 0) {
+            throw new IllegalArgumentException("no neighborhood sizes specified");
+        }
+        sizes = nnbrs.clone();
+        Arrays.sort(sizes);
+        ImmutableList.Builder<String> cols = ImmutableList.builder();
+        for (int n: sizes) {
+            cols.add(String.format("RMSE@%dnbrs", n));
+            cols.add(String.format("Coverage@%dnbrs", n));
+        }
+        columns = cols.build();
+    }
+
+    @Override
+    public TestUserMetricAccumulator makeAccumulator(AlgorithmInstance algorithm, TTDataSet data) {
+        return new Accumulator(data.getPreferenceDomain());
+    }
+
+    @Override
+    public List<String> getColumnLabels() {
+        return columns;
+    }
+
+    @Override
+    public List<String> getUserColumnLabels() {
+        return Collections.emptyList();
+    }
+
+    private class Accumulator implements TestUserMetricAccumulator {
+        private final double[] rmseTotals = new double[sizes.length];
+        private final int[] rmseUsers = new int[sizes.length];
+        private final long[] predicted = new long[sizes.length];
+        private long ratingCount = 0;
+        @Nullable
+        private final PreferenceDomain domain;
+
+        Accumulator(@Nullable PreferenceDomain dom) {
+            domain = dom;
+        }
+
+        @Nonnull
+        @Override
+        public Object[] evaluate(TestUser testUser) {
+            ItemScorer scorer = testUser.getRecommender().getItemScorer();
+            if (!(scorer instanceof SweepUserUserItemScorer)) {
+                return new Object[0];
+            }
+
+            SparseVector ratings = testUser.getTestRatings();
+            SparseVector[] scores =
+                    ((SweepUserUserItemScorer) scorer).scoreSweep(testUser.getUserId(),
+                                                                  ratings, sizes);
+            ratingCount += ratings.size();
+
+            for (int k = 0; k < sizes.length; k++) {
+                double sse = 0;
+                int n = 0;
+                for (VectorEntry e: scores[k].fast()) {
+                    double score = e.getValue();
+                    if (domain != null) {
+                        score = domain.clampValue(score);
+                    }
+                    double err = score - ratings.get(e.getKey());
+                    sse += err * err;
+                    n++;
+                }
+                predicted[k] += n;
+                if (n > 0) {
+                    double rmse = Math.sqrt(sse / n);
+                    rmseTotals[k] += rmse;
+                    rmseUsers[k] += 1;
+                }
+            }
+            return new Object[0];
+        }
+
+        @Nonnull
+        @Override
+        public Object[] finalResults() {
+            Object[] results = new Object[columns.size()];
+            for (int k = 0; k < sizes.length; k++) {
+                results[k * 2] = rmseUsers[k] > 0 ? rmseTotals[k] / rmseUsers[k] : null;
+                results[k * 2 + 1] = ratingCount > 0 ? (double) predicted[k] / ratingCount : null;
+            }
+            return results;
+        }
+    }
+}
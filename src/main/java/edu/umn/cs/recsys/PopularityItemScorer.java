@@ -22,7 +22,7 @@ import java.io.Serializable;
  */
 @Shareable
 @DefaultProvider(PopularityItemScorer.Builder.class)
-public class PopularityItemScorer extends AbstractItemScorer implements Serializable {
+public class PopularityItemScorer extends AbstractItemScorer implements Serializable, MemoryFootprint {
     private static final long serialVersionUID = 1L;
 
     private final SparseVector itemPopularity;
@@ -36,6 +36,21 @@ public class PopularityItemScorer extends AbstractItemScorer implements Serializ
         vectorEntries.set(itemPopularity);
     }
 
+    @Override
+    public long getRetainedSizeEstimate() {
+        // sparse vector: parallel key and value arrays plus a usage bit set
+        int n = itemPopularity.keyDomain().size();
+        return MemoryEstimates.OBJECT_HEADER * 3
+                + MemoryEstimates.array(n, 8)
+                + MemoryEstimates.array(n, 8)
+                + MemoryEstimates.array((n + 63) / 64, 8);
+    }
+
+    @Override
+    public long getEntryCount() {
+        return itemPopularity.size();
+    }
+
     public static class Builder implements Provider<PopularityItemScorer> {
         private final EventDAO eventDAO;
         private final ItemDAO itemDAO;
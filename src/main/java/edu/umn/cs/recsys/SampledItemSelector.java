@@ -0,0 +1,125 @@
+package edu.umn.cs.recsys;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.core.LenskitRecommender;
+import org.grouplens.lenskit.data.event.Event;
+import org.grouplens.lenskit.data.history.UserHistory;
+import org.grouplens.lenskit.eval.metrics.topn.ItemSelector;
+import org.grouplens.lenskit.eval.traintest.TestUser;
+
+import java.util.Random;
+
+/**
+ * Candidate selector for sampled top-N evaluation.  It selects the user's held-out test items
+ * plus a fixed number of random negatives drawn from the items the user rated in neither the
+ * training nor the test data.  Ranking then costs O(N) per user instead of O(|items|).
+ *
+ * <p>Draws are seeded from the selector's seed and the user ID, so every algorithm and metric
+ * sees the same candidates for a user.  Negatives are drawn either uniformly or stratified by
+ * popularity: the items are ranked by training rating count and cut into strata of equal item
+ * count, and each stratum contributes an equal share of the negatives.  Uniform draws mostly
+ * come from the long tail, which is easy to rank below the test items; stratified draws give
+ * the head of the catalog the same weight as the tail.  Training items are never selected, so
+ * use {@link BitmapItemSelectors#noItems()} as the exclude set.  Sampling uses
+ * {@link TrainingItemBitmaps}, which must be a root of the configuration.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class SampledItemSelector implements ItemSelector {
+    private static final int MAX_ATTEMPTS_PER_ITEM = 20;
+
+    private final int sampleSize;
+    private final long seed;
+    private final int strata;
+
+    private SampledItemSelector(int n, long seed, int strata) {
+        sampleSize = n;
+        this.seed = seed;
+        this.strata = strata;
+    }
+
+    /**
+     * Select test items plus uniformly-drawn negatives.
+     * @param n The number of negatives per user.
+     * @param seed The random seed.
+     * @return The item selector.
+     */
+    public static SampledItemSelector uniform(int n, long seed) {
+        return new SampledItemSelector(n, seed, 0);
+    }
+
+    /**
+     * Select test items plus negatives drawn evenly from popularity strata.  Each stratum gives
+     * {@code n / strata} negatives, with the remainder going to the most popular strata.
+     * @param n The number of negatives per user.
+     * @param strata The number of popularity strata.
+     * @param seed The random seed.
+     * @return The item selector.
+     */
+    public static SampledItemSelector stratified(int n, int strata, long seed) {
+        if (strata <= 0) {
+            throw new IllegalArgumentException("strata must be positive");
+        }
+        return new SampledItemSelector(n, seed, strata);
+    }
+
+    @Override
+    public LongSet select(TestUser user) {
+        LenskitRecommender rec = (LenskitRecommender) user.getRecommender();
+        TrainingItemBitmaps bitmaps = rec.get(TrainingItemBitmaps.class);
+        long uid = user.getUserId();
+
+        UserHistory<Event> test = user.getTestHistory();
+        LongSet testItems = test.itemSet();
+        LongSet selected = new LongOpenHashSet(testItems.size() + sampleSize);
+        selected.addAll(testItems);
+        if (bitmaps.getItemCount() == 0) {
+            return selected;
+        }
+
+        Random rng = new Random(seed ^ (uid * 0x9E3779B97F4A7C15L));
+        if (strata == 0) {
+            sample(bitmaps, uid, testItems, selected, rng, sampleSize, 0, 0);
+        } else {
+            int nstrata = Math.min(strata, bitmaps.getItemCount());
+            for (int s = 0; s < nstrata; s++) {
+                int quota = sampleSize / nstrata + (s < sampleSize % nstrata ? 1 : 0);
+                sample(bitmaps, uid, testItems, selected, rng, quota, s, nstrata);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Add up to {@code count} negatives to the selection, from one stratum or, if
+     * {@code nstrata} is 0, from all items.  Bounded rejection sampling; users who rated nearly
+     * everything get fewer negatives.
+     */
+    private static void sample(TrainingItemBitmaps bitmaps, long uid, LongSet testItems,
+                               LongSet selected, Random rng, int count, int stratum, int nstrata) {
+        int drawn = 0;
+        int attempts = 0;
+        while (drawn < count && attempts < count * MAX_ATTEMPTS_PER_ITEM) {
+            attempts++;
+            int idx = nstrata == 0 ? bitmaps.sampleIndex(rng)
+                                   : bitmaps.sampleIndex(rng, stratum, nstrata);
+            if (bitmaps.isTrainingItem(uid, idx)) {
+                continue;
+            }
+            long item = bitmaps.getItemId(idx);
+            if (!testItems.contains(item) && selected.add(item)) {
+                drawn++;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (strata == 0) {
+            return String.format("Sampled(%d, uniform)", sampleSize);
+        } else {
+            return String.format("Sampled(%d, %d strata)", sampleSize, strata);
+        }
+    }
+}
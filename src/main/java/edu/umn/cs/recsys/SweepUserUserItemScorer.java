@@ -0,0 +1,308 @@
+package edu.umn.cs.recsys;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.basic.AbstractItemScorer;
+import org.grouplens.lenskit.data.dao.ItemEventDAO;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.data.event.Event;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.event.Ratings;
+import org.grouplens.lenskit.data.history.UserHistory;
+import org.grouplens.lenskit.knn.NeighborhoodSize;
+import org.grouplens.lenskit.transform.normalize.UserVectorNormalizer;
+import org.grouplens.lenskit.transform.normalize.VectorTransformation;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+import org.grouplens.lenskit.vectors.similarity.VectorSimilarity;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.util.List;
+
+/**
+ * User-user scorer that can score several neighborhood sizes in one pass.  For each item, the
+ * most similar users who rated it are selected once, and the weighted sums are accumulated along
+ * that list; the score for neighborhood size {@code k} is read off when the running sums reach
+ * the {@code k}th neighbor.  Smaller neighborhoods are prefixes of larger ones, so sweeping
+ * {@code k} costs about as much as scoring the largest size alone.
+ *
+ * <p>Scoring follows {@link org.grouplens.lenskit.knn.user.UserUserItemScorer} with its default
+ * neighborhood finder: ratings are normalized with the configured {@link UserVectorNormalizer},
+ * similarities are computed on the normalized vectors, every neighbor with a finite similarity
+ * is a candidate, and the score is the neighbors' normalized ratings weighted by similarity and
+ * divided by the sum of absolute similarities, denormalized into the target user's scale.
+ * {@code SweepUserUserItemScorerTest} checks the two scorers agree at every size.
+ *
+ * <p>When used as a plain {@link org.grouplens.lenskit.ItemScorer}, it scores with the
+ * configured {@link NeighborhoodSize}.  The neighbor lists of the last user scored are kept, so
+ * a following {@link #scoreSweep(long, SparseVector, int[])} for the same user and items (as
+ * from {@link NeighborhoodSweepMetric} after the prediction pass) reuses them instead of
+ * scoring again.
+ *
+ * @see NeighborhoodSweepMetric
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class SweepUserUserItemScorer extends AbstractItemScorer {
+    private final UserEventDAO userEventDAO;
+    private final ItemEventDAO itemEventDAO;
+    private final UserVectorNormalizer normalizer;
+    private final VectorSimilarity similarity;
+    private final int neighborhoodSize;
+
+    private volatile NeighborLists lastLists;
+
+    @Inject
+    public SweepUserUserItemScorer(UserEventDAO uedao, ItemEventDAO iedao,
+                                   UserVectorNormalizer norm,
+                                   VectorSimilarity sim,
+                                   @NeighborhoodSize int nnbrs) {
+        userEventDAO = uedao;
+        itemEventDAO = iedao;
+        normalizer = norm;
+        similarity = sim;
+        neighborhoodSize = nnbrs;
+    }
+
+    @Override
+    public void score(long user, @Nonnull MutableSparseVector scores) {
+        NeighborLists lists = findNeighbors(user, scores, neighborhoodSize);
+        lastLists = lists;
+        SparseVector[] results = lists.score(scores, new int[]{neighborhoodSize});
+        scores.clear();
+        scores.set(results[0]);
+    }
+
+    /**
+     * Score items at several neighborhood sizes at once.
+     * @param user The user ID.
+     * @param items A vector whose key domain is the items to score.
+     * @param sizes The neighborhood sizes, in increasing order.
+     * @return One score vector per neighborhood size, each with the key domain of {@code items}.
+     */
+    public SparseVector[] scoreSweep(long user, SparseVector items, int[] sizes) {
+        int maxSize = sizes[sizes.length - 1];
+        NeighborLists lists = lastLists;
+        if (lists == null || !lists.covers(user, items.keyDomain(), maxSize)) {
+            lists = findNeighbors(user, items, maxSize);
+        }
+        return lists.score(items, sizes);
+    }
+
+    /**
+     * Select each item's most similar neighbors.
+     */
+    private NeighborLists findNeighbors(long user, SparseVector items, int depth) {
+        SparseVector userRatings = getRatingVector(user);
+        if (userRatings == null) {
+            return new NeighborLists(user, items.keyDomain(), depth, null,
+                                     new Long2ObjectOpenHashMap<NeighborList>());
+        }
+        VectorTransformation userXform = normalizer.makeTransformation(user, userRatings);
+        MutableSparseVector userVec = userRatings.mutableCopy();
+        userXform.apply(userVec);
+
+        // neighbor vectors and similarities are shared across all items
+        Long2ObjectMap<MutableSparseVector> nbrVectors = new Long2ObjectOpenHashMap<MutableSparseVector>();
+        Long2DoubleMap nbrSims = new Long2DoubleOpenHashMap();
+        Long2ObjectMap<NeighborList> lists = new Long2ObjectOpenHashMap<NeighborList>();
+
+        for (VectorEntry e: items.fast(VectorEntry.State.EITHER)) {
+            long item = e.getKey();
+            List<Rating> ratings = itemEventDAO.getEventsForItem(item, Rating.class);
+            if (ratings == null) {
+                continue;
+            }
+            long[] nbrs = new long[ratings.size()];
+            double[] sims = new double[ratings.size()];
+            int count = 0;
+            for (Rating r: ratings) {
+                long nbr = r.getUserId();
+                if (nbr == user || r.getPreference() == null) {
+                    continue;
+                }
+                if (!nbrSims.containsKey(nbr)) {
+                    MutableSparseVector nv = getRatingVector(nbr);
+                    if (nv != null) {
+                        normalizer.makeTransformation(nbr, nv).apply(nv);
+                    }
+                    nbrVectors.put(nbr, nv);
+                    nbrSims.put(nbr, nv == null ? Double.NaN : similarity.similarity(userVec, nv));
+                }
+                double sim = nbrSims.get(nbr);
+                if (!Double.isNaN(sim) && !Double.isInfinite(sim)) {
+                    nbrs[count] = nbr;
+                    sims[count] = sim;
+                    count++;
+                }
+            }
+
+            int[] order = topIndices(sims, count, depth);
+            NeighborList list = new NeighborList(order.length);
+            for (int n = 0; n < order.length; n++) {
+                int idx = order[n];
+                list.sims[n] = sims[idx];
+                list.values[n] = nbrVectors.get(nbrs[idx]).get(item);
+            }
+            lists.put(item, list);
+        }
+        return new NeighborLists(user, items.keyDomain(), depth, userXform, lists);
+    }
+
+    private MutableSparseVector getRatingVector(long user) {
+        UserHistory<Event> history = userEventDAO.getEventsForUser(user);
+        if (history == null) {
+            return null;
+        }
+        MutableSparseVector vec = Ratings.userRatingVector(history.filter(Rating.class));
+        if (vec.isEmpty()) {
+            return null;
+        }
+        return vec;
+    }
+
+    /**
+     * Find the indices of the {@code n} largest similarities, in decreasing order.  A bounded
+     * min-heap of indices keeps the selection in primitive arrays.
+     */
+    static int[] topIndices(double[] sims, int count, int n) {
+        int len = Math.min(n, count);
+        int[] heap = new int[len];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (size < len) {
+                heap[size] = i;
+                siftUp(heap, size, sims);
+                size++;
+            } else if (len > 0 && sims[i] > sims[heap[0]]) {
+                heap[0] = i;
+                siftDown(heap, size, sims);
+            }
+        }
+        // popping the minimum fills the result from the back
+        int[] top = new int[len];
+        while (size > 0) {
+            top[size - 1] = heap[0];
+            size--;
+            heap[0] = heap[size];
+            siftDown(heap, size, sims);
+        }
+        return top;
+    }
+
+    private static void siftUp(int[] heap, int pos, double[] sims) {
+        int idx = heap[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (sims[heap[parent]] <= sims[idx]) {
+                break;
+            }
+            heap[pos] = heap[parent];
+            pos = parent;
+        }
+        heap[pos] = idx;
+    }
+
+    private static void siftDown(int[] heap, int size, double[] sims) {
+        if (size == 0) {
+            return;
+        }
+        int idx = heap[0];
+        int pos = 0;
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && sims[heap[child + 1]] < sims[heap[child]]) {
+                child += 1;
+            }
+            if (sims[idx] <= sims[heap[child]]) {
+                break;
+            }
+            heap[pos] = heap[child];
+            pos = child;
+        }
+        heap[pos] = idx;
+    }
+
+    /**
+     * An item's selected neighbors, in decreasing similarity order.
+     */
+    private static class NeighborList {
+        final double[] sims;
+        final double[] values;
+
+        NeighborList(int n) {
+            sims = new double[n];
+            values = new double[n];
+        }
+    }
+
+    /**
+     * The neighbor lists of one user's items, up to a depth.
+     */
+    private static class NeighborLists {
+        private final long user;
+        private final LongSet items;
+        private final int depth;
+        private final VectorTransformation userXform;
+        private final Long2ObjectMap<NeighborList> lists;
+
+        NeighborLists(long user, LongSet items, int depth, VectorTransformation xform,
+                      Long2ObjectMap<NeighborList> lists) {
+            this.user = user;
+            this.items = items;
+            this.depth = depth;
+            userXform = xform;
+            this.lists = lists;
+        }
+
+        boolean covers(long u, LongSet keys, int size) {
+            return u == user && size <= depth && items.containsAll(keys);
+        }
+
+        SparseVector[] score(SparseVector keys, int[] sizes) {
+            MutableSparseVector[] results = new MutableSparseVector[sizes.length];
+            for (int k = 0; k < sizes.length; k++) {
+                results[k] = MutableSparseVector.create(keys.keyDomain());
+            }
+            if (userXform == null) {
+                return results;
+            }
+            for (VectorEntry e: keys.fast(VectorEntry.State.EITHER)) {
+                long item = e.getKey();
+                NeighborList list = lists.get(item);
+                if (list == null) {
+                    continue;
+                }
+                double num = 0;
+                double den = 0;
+                int k = 0;
+                for (int n = 0; n < list.sims.length && k < sizes.length; n++) {
+                    num += list.sims[n] * list.values[n];
+                    den += Math.abs(list.sims[n]);
+                    while (k < sizes.length && sizes[k] == n + 1) {
+                        if (den > 0) {
+                            results[k].set(item, num / den);
+                        }
+                        k++;
+                    }
+                }
+                // items with fewer neighbors than a size use all the neighbors they have
+                while (k < sizes.length && den > 0) {
+                    results[k].set(item, num / den);
+                    k++;
+                }
+            }
+            for (MutableSparseVector result: results) {
+                userXform.unapply(result);
+            }
+            return results;
+        }
+    }
+}
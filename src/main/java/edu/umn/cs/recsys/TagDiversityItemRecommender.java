@@ -0,0 +1,198 @@
+package edu.umn.cs.recsys;
+
+import edu.umn.cs.recsys.dao.ItemTagDAO;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.ItemScorer;
+import org.grouplens.lenskit.basic.AbstractItemRecommender;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.data.event.Event;
+import org.grouplens.lenskit.data.history.UserHistory;
+import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.scored.ScoredIdListBuilder;
+import org.grouplens.lenskit.scored.ScoredIds;
+import org.grouplens.lenskit.util.ScoredItemAccumulator;
+import org.grouplens.lenskit.util.TopNScoredItemAccumulator;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Item recommender that reranks a scorer's top candidates for tag diversity.  The list is built
+ * greedily: at each position it picks the candidate maximizing
+ * {@code (1 - w) * normalizedScore + w * normalizedGain}, where the gain is the increase in the
+ * list's tag entropy (in bits, as measured by {@link TagEntropyMetric}) from adding it.  Scores
+ * are scaled to [0,1] over the candidate pool and gains over each round's remaining candidates,
+ * so the weight trades off comparable quantities at every position even though raw gains shrink
+ * as the list grows.
+ *
+ * <p>The entropy is tracked from running tag counts.  With {@code L} the total tag count and
+ * {@code S = sum(c * log c)} over the tag counts {@code c}, the entropy is {@code log L - S / L},
+ * so a candidate's gain only needs its own tags' counts.  Reranking a list of {@code k} items
+ * from {@code p} candidates therefore costs O(k * p * average tags per item).
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class TagDiversityItemRecommender extends AbstractItemRecommender {
+    private static final double LN2 = Math.log(2);
+
+    private final UserEventDAO userEventDAO;
+    private final ItemTagDAO tagDAO;
+    private final TagVocabulary vocab;
+    private final ItemScorer scorer;
+    private final double diversityWeight;
+    private final int poolSize;
+
+    @Inject
+    public TagDiversityItemRecommender(UserEventDAO uedao, ItemTagDAO tdao, TagVocabulary vocab,
+                                       ItemScorer scorer,
+                                       @DiversityWeight double weight,
+                                       @RerankPoolSize int pool) {
+        userEventDAO = uedao;
+        tagDAO = tdao;
+        this.vocab = vocab;
+        this.scorer = scorer;
+        diversityWeight = weight;
+        poolSize = pool;
+    }
+
+    @Override
+    protected List<ScoredId> recommend(long user, int n, @Nullable LongSet candidates,
+                                       @Nullable LongSet exclude) {
+        if (candidates == null) {
+            candidates = tagDAO.getItemIds();
+        }
+        if (exclude == null) {
+            exclude = getDefaultExcludes(user);
+        }
+        if (!exclude.isEmpty()) {
+            LongSet reduced = new LongOpenHashSet(candidates);
+            reduced.removeAll(exclude);
+            candidates = reduced;
+        }
+
+        SparseVector scores = scorer.score(user, candidates);
+        int pool = n < 0 ? scores.size() : Math.max(n, poolSize);
+        ScoredItemAccumulator accum = new TopNScoredItemAccumulator(pool);
+        for (VectorEntry e: scores.fast()) {
+            accum.put(e.getKey(), e.getValue());
+        }
+        List<ScoredId> ranked = accum.finish();
+        if (n < 0 || n > ranked.size()) {
+            n = ranked.size();
+        }
+        return rerank(ranked, n);
+    }
+
+    private List<ScoredId> rerank(List<ScoredId> ranked, int n) {
+        int size = ranked.size();
+        ScoredIdListBuilder builder = ScoredIds.newListBuilder();
+        if (size == 0) {
+            return builder.build();
+        }
+
+        // look up each candidate's distinct tag IDs once
+        int[][] itemTags = new int[size][];
+        int[] stamp = new int[vocab.size() + 1];
+        int[] buffer = new int[16];
+        for (int i = 0; i < size; i++) {
+            int m = 0;
+            for (String tag: tagDAO.getItemTags(ranked.get(i).getId())) {
+                if (!vocab.hasTag(tag)) {
+                    continue;
+                }
+                int tid = (int) vocab.getTagId(tag);
+                if (stamp[tid] != i + 1) {
+                    stamp[tid] = i + 1;
+                    if (m == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, m * 2);
+                    }
+                    buffer[m++] = tid;
+                }
+            }
+            itemTags[i] = Arrays.copyOf(buffer, m);
+        }
+
+        double maxScore = ranked.get(0).getScore();
+        double minScore = ranked.get(size - 1).getScore();
+        double range = maxScore - minScore;
+
+        int[] counts = new int[vocab.size() + 1];
+        boolean[] used = new boolean[size];
+        long total = 0;
+        double sumCLogC = 0;
+        double entropy = 0;
+
+        double[] gains = new double[size];
+        double[] sums = new double[size];
+        for (int pos = 0; pos < n; pos++) {
+            double maxGain = Double.NEGATIVE_INFINITY;
+            double minGain = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                if (used[i]) {
+                    continue;
+                }
+                int[] tags = itemTags[i];
+                double sum = sumCLogC;
+                for (int tid: tags) {
+                    int c = counts[tid];
+                    sum += xlogx(c + 1) - xlogx(c);
+                }
+                long newTotal = total + tags.length;
+                double gain = 0;
+                if (newTotal > 0) {
+                    gain = (Math.log(newTotal) - sum / newTotal) / LN2 - entropy;
+                }
+                gains[i] = gain;
+                sums[i] = sum;
+                maxGain = Math.max(maxGain, gain);
+                minGain = Math.min(minGain, gain);
+            }
+            double gainRange = maxGain - minGain;
+
+            int best = -1;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                if (used[i]) {
+                    continue;
+                }
+                double norm = range > 0 ? (ranked.get(i).getScore() - minScore) / range : 1;
+                double normGain = gainRange > 0 ? (gains[i] - minGain) / gainRange : 1;
+                double value = (1 - diversityWeight) * norm + diversityWeight * normGain;
+                if (value > bestValue) {
+                    best = i;
+                    bestValue = value;
+                }
+            }
+
+            used[best] = true;
+            for (int tid: itemTags[best]) {
+                counts[tid] += 1;
+            }
+            total += itemTags[best].length;
+            sumCLogC = sums[best];
+            if (total > 0) {
+                entropy = (Math.log(total) - sumCLogC / total) / LN2;
+            }
+            builder.add(ranked.get(best).getId(), ranked.get(best).getScore());
+        }
+        return builder.build();
+    }
+
+    private static double xlogx(int x) {
+        return x == 0 ? 0 : x * Math.log(x);
+    }
+
+    private LongSet getDefaultExcludes(long user) {
+        UserHistory<Event> history = userEventDAO.getEventsForUser(user);
+        if (history == null) {
+            return new LongOpenHashSet();
+        } else {
+            return history.itemSet();
+        }
+    }
+}
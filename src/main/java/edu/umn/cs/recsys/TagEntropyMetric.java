@@ -7,7 +7,7 @@ import org.grouplens.lenskit.eval.algorithm.AlgorithmInstance;
 import org.grouplens.lenskit.eval.data.traintest.TTDataSet;
 import org.grouplens.lenskit.eval.metrics.AbstractTestUserMetric;
 import org.grouplens.lenskit.eval.metrics.TestUserMetricAccumulator;
-import org.grouplens.lenskit.eval.metrics.topn.ItemSelectors;
+import org.grouplens.lenskit.eval.metrics.topn.ItemSelector;
 import org.grouplens.lenskit.eval.traintest.TestUser;
 import org.grouplens.lenskit.scored.ScoredId;
 import org.grouplens.lenskit.vectors.MutableSparseVector;
@@ -24,6 +24,8 @@ import java.util.*;
  */
 public class TagEntropyMetric extends AbstractTestUserMetric {
     private final int listSize;
+    private final ItemSelector candidates;
+    private final ItemSelector exclude;
     private final List<String> columns;
     private static Logger logger = LoggerFactory.getLogger(TagEntropyMetric.class);
     private Boolean debug;
@@ -34,9 +36,25 @@ public class TagEntropyMetric extends AbstractTestUserMetric {
      * @param nitems The number of items to request.
      */
     public TagEntropyMetric(int nitems) {
+        this(null, nitems, BitmapItemSelectors.untrainedItems(), BitmapItemSelectors.noItems());
+    }
+
+    /**
+     * Construct a new tag entropy metric over a custom candidate set, such as a
+     * {@link SampledItemSelector}.
+     *
+     * @param prefix A prefix for the column label (e.g. {@code "Sampled"}), or {@code null}.
+     * @param nitems The number of items to request.
+     * @param candidates The candidate items to recommend from.
+     * @param exclude The items to exclude from the candidates.
+     */
+    public TagEntropyMetric(String prefix, int nitems, ItemSelector candidates, ItemSelector exclude) {
         listSize = nitems;
+        this.candidates = candidates;
+        this.exclude = exclude;
         // initialize column labels with list length
-        columns = ImmutableList.of(String.format("TagEntropy@%d", nitems));
+        String label = String.format("TagEntropy@%d", nitems);
+        columns = ImmutableList.of(prefix == null ? label : prefix + "." + label);
     }
 
     /**
@@ -85,9 +103,7 @@ public class TagEntropyMetric extends AbstractTestUserMetric {
         @Override
         public Object[] evaluate(TestUser testUser) {
             List<ScoredId> recommendations =
-                    testUser.getRecommendations(listSize,
-                                                ItemSelectors.allItems(),
-                                                ItemSelectors.trainingItems());
+                    testUser.getRecommendations(listSize, candidates, exclude);
             if (recommendations == null) {
                 return new Object[1];
             }
@@ -0,0 +1,28 @@
+package edu.umn.cs.recsys;
+
+import org.grouplens.lenskit.basic.AbstractItemScorer;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+
+/**
+ * Content-based item scorer that scores items by the cosine between the user's weighted tag
+ * profile and the item's tags.
+ *
+ * @see TagProfileStore
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class TagProfileItemScorer extends AbstractItemScorer {
+    private final TagProfileStore profiles;
+
+    @Inject
+    public TagProfileItemScorer(TagProfileStore store) {
+        profiles = store;
+    }
+
+    @Override
+    public void score(long user, @Nonnull MutableSparseVector scores) {
+        profiles.score(user, scores);
+    }
+}
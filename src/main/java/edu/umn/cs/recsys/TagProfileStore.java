@@ -0,0 +1,220 @@
+package edu.umn.cs.recsys;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.grouplens.lenskit.core.Shareable;
+import org.grouplens.lenskit.core.Transient;
+import org.grouplens.lenskit.cursors.Cursor;
+import org.grouplens.lenskit.data.dao.EventDAO;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.pref.Preference;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.Serializable;
+
+/**
+ * Weighted tag profiles for every user.  A user's profile is the sum, over the items they rated,
+ * of the item's binary tag vector (from {@link ItemTagMatrix}) weighted by the rating's offset
+ * from the global mean.  Because the profile is a plain sum, a new or removed rating updates it
+ * in time proportional to the item's tag count, and the profile's squared norm is maintained
+ * alongside it.
+ *
+ * <p>Profiles are stored as primitive tag&rarr;weight maps.  Updates and scoring lock the
+ * individual profile, so the store can be shared and updated while recommenders are serving.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Shareable
+@DefaultProvider(TagProfileStore.Builder.class)
+public class TagProfileStore implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final ItemTagMatrix matrix;
+    private final double baseline;
+    private final Long2ObjectMap<Profile> profiles;
+
+    private TagProfileStore(ItemTagMatrix matrix, double baseline, Long2ObjectMap<Profile> profiles) {
+        this.matrix = matrix;
+        this.baseline = baseline;
+        this.profiles = profiles;
+    }
+
+    /**
+     * Add a rating to a user's profile.
+     * @param user The user ID.
+     * @param item The item ID.
+     * @param rating The rating value.
+     */
+    public void addRating(long user, long item, double rating) {
+        int row = matrix.getItemIndex(item);
+        if (row >= 0) {
+            getOrCreateProfile(user).add(matrix, row, rating - baseline);
+        }
+    }
+
+    /**
+     * Remove a previously-added rating from a user's profile.  To change a rating, remove the
+     * old value and add the new one.
+     * @param user The user ID.
+     * @param item The item ID.
+     * @param rating The rating value that was added.
+     */
+    public void removeRating(long user, long item, double rating) {
+        int row = matrix.getItemIndex(item);
+        if (row >= 0) {
+            getOrCreateProfile(user).add(matrix, row, baseline - rating);
+        }
+    }
+
+    /**
+     * Score items by the cosine between the user's profile and each item's tag vector.  Items
+     * without tags, and all items for users without a profile, are left unscored.
+     *
+     * <p>When the profile's posting lists are shorter in total than the candidates' tag rows,
+     * the scores are accumulated by streaming over the tag&rarr;item inverted index, so only
+     * items sharing a tag with the user are touched; otherwise each candidate's row is
+     * dotted with the profile.
+     *
+     * @param user The user ID.
+     * @param scores The vector whose key domain is the items to score.
+     */
+    public void score(long user, MutableSparseVector scores) {
+        Profile profile;
+        synchronized (profiles) {
+            profile = profiles.get(user);
+        }
+        if (profile == null) {
+            return;
+        }
+        synchronized (profile) {
+            if (profile.sumSquares <= 0) {
+                return;
+            }
+            double norm = Math.sqrt(profile.sumSquares);
+            double avgPosting = (double) matrix.getEntryCount() / Math.max(1, matrix.getTagCount());
+            double avgRow = (double) matrix.getEntryCount() / Math.max(1, matrix.getItemCount());
+            if (profile.weights.size() * avgPosting < scores.keyDomain().size() * avgRow) {
+                scoreByPostings(profile, norm, scores);
+            } else {
+                scoreByRows(profile, norm, scores);
+            }
+        }
+    }
+
+    private void scoreByRows(Profile profile, double norm, MutableSparseVector scores) {
+        for (VectorEntry e: scores.fast(VectorEntry.State.EITHER)) {
+            int row = matrix.getItemIndex(e.getKey());
+            if (row < 0) {
+                continue;
+            }
+            int start = matrix.getRowStart(row), end = matrix.getRowEnd(row);
+            if (start == end) {
+                continue;
+            }
+            double dot = 0;
+            for (int p = start; p < end; p++) {
+                dot += profile.weights.get(matrix.getTag(p));
+            }
+            scores.set(e.getKey(), dot / (norm * Math.sqrt(end - start)));
+        }
+    }
+
+    private void scoreByPostings(Profile profile, double norm, MutableSparseVector scores) {
+        double[] dots = new double[matrix.getItemCount()];
+        for (Int2DoubleMap.Entry w: profile.weights.int2DoubleEntrySet()) {
+            int tag = w.getIntKey();
+            double weight = w.getDoubleValue();
+            for (int p = matrix.getPostingStart(tag), end = matrix.getPostingEnd(tag); p < end; p++) {
+                dots[matrix.getPostingRow(p)] += weight;
+            }
+        }
+        for (VectorEntry e: scores.fast(VectorEntry.State.EITHER)) {
+            int row = matrix.getItemIndex(e.getKey());
+            if (row < 0) {
+                continue;
+            }
+            int ntags = matrix.getRowEnd(row) - matrix.getRowStart(row);
+            if (ntags > 0) {
+                scores.set(e.getKey(), dots[row] / (norm * Math.sqrt(ntags)));
+            }
+        }
+    }
+
+    private Profile getOrCreateProfile(long user) {
+        synchronized (profiles) {
+            Profile p = profiles.get(user);
+            if (p == null) {
+                p = new Profile();
+                profiles.put(user, p);
+            }
+            return p;
+        }
+    }
+
+    private static class Profile implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Int2DoubleOpenHashMap weights = new Int2DoubleOpenHashMap();
+        private double sumSquares;
+
+        synchronized void add(ItemTagMatrix matrix, int row, double weight) {
+            for (int p = matrix.getRowStart(row), end = matrix.getRowEnd(row); p < end; p++) {
+                int tag = matrix.getTag(p);
+                double old = weights.get(tag);
+                double now = old + weight;
+                sumSquares += now * now - old * old;
+                weights.put(tag, now);
+            }
+        }
+    }
+
+    public static class Builder implements Provider<TagProfileStore> {
+        private final ItemTagMatrix matrix;
+        private final EventDAO eventDAO;
+
+        @Inject
+        public Builder(ItemTagMatrix matrix, @Transient EventDAO edao) {
+            this.matrix = matrix;
+            eventDAO = edao;
+        }
+
+        @Override
+        public TagProfileStore get() {
+            double sum = 0;
+            int n = 0;
+            Cursor<Rating> ratings = eventDAO.streamEvents(Rating.class);
+            try {
+                for (Rating r: ratings) {
+                    Preference p = r.getPreference();
+                    if (p != null) {
+                        sum += p.getValue();
+                        n++;
+                    }
+                }
+            } finally {
+                ratings.close();
+            }
+
+            TagProfileStore store = new TagProfileStore(matrix, n > 0 ? sum / n : 0,
+                                                        new Long2ObjectOpenHashMap<Profile>());
+            ratings = eventDAO.streamEvents(Rating.class);
+            try {
+                for (Rating r: ratings) {
+                    Preference p = r.getPreference();
+                    if (p != null) {
+                        store.addRating(r.getUserId(), r.getItemId(), p.getValue());
+                    }
+                }
+            } finally {
+                ratings.close();
+            }
+            return store;
+        }
+    }
+}
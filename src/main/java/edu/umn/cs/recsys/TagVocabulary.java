@@ -3,10 +3,12 @@ package edu.umn.cs.recsys;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
 import edu.umn.cs.recsys.dao.ItemTagDAO;
+import org.grouplens.lenskit.core.Shareable;
 import org.grouplens.lenskit.core.Transient;
 import org.grouplens.lenskit.vectors.MutableSparseVector;
 
 import javax.inject.Inject;
+import java.io.Serializable;
 import java.util.Map;
 import java.util.Set;
 
@@ -16,7 +18,10 @@ import java.util.Set;
  *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
-public class TagVocabulary {
+@Shareable
+public class TagVocabulary implements Serializable, MemoryFootprint {
+    private static final long serialVersionUID = 1L;
+
     private final Map<String, Long> tagMap;
 
     @Inject
@@ -40,6 +45,30 @@ public class TagVocabulary {
         return MutableSparseVector.create(tagMap.values());
     }
 
+    /**
+     * Get the number of tags in the vocabulary.  Tag IDs are numbered densely from 1 to this size.
+     * @return The vocabulary size.
+     */
+    public int size() {
+        return tagMap.size();
+    }
+
+    @Override
+    public long getRetainedSizeEstimate() {
+        // immutable map: hash table, an entry object per tag, and boxed IDs
+        long perEntry = MemoryEstimates.OBJECT_HEADER + 3 * MemoryEstimates.REFERENCE
+                + MemoryEstimates.BOXED_WORD;
+        return MemoryEstimates.OBJECT_HEADER
+                + MemoryEstimates.array(tagMap.size() * 2, MemoryEstimates.REFERENCE)
+                + tagMap.size() * perEntry
+                + MemoryEstimates.strings(tagMap.keySet());
+    }
+
+    @Override
+    public long getEntryCount() {
+        return tagMap.size();
+    }
+
     /**
      * Query whether the vocabulary has a tag.
      * @param tag The tag to query for.
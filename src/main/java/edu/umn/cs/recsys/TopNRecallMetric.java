@@ -0,0 +1,108 @@
+package edu.umn.cs.recsys;
+
+import com.google.common.collect.ImmutableList;
+import org.grouplens.lenskit.eval.algorithm.AlgorithmInstance;
+import org.grouplens.lenskit.eval.data.traintest.TTDataSet;
+import org.grouplens.lenskit.eval.metrics.AbstractTestUserMetric;
+import org.grouplens.lenskit.eval.metrics.TestUserMetricAccumulator;
+import org.grouplens.lenskit.eval.metrics.topn.ItemSelector;
+import org.grouplens.lenskit.eval.traintest.TestUser;
+import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * A metric that measures the recall of the recommended items: the fraction of the user's
+ * relevant test items (those rated at or above a threshold) that appear in the top-N list.
+ * Users with no relevant test items are skipped.  With a {@link SampledItemSelector} as the
+ * candidates, this is recall against the sampled negatives rather than the whole catalog.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class TopNRecallMetric extends AbstractTestUserMetric {
+    private final int listSize;
+    private final ItemSelector candidates;
+    private final ItemSelector exclude;
+    private final double threshold;
+    private final List<String> columns;
+
+    /**
+     * Construct a new recall metric.
+     *
+     * @param prefix A prefix for the column label (e.g. {@code "Sampled"}), or {@code null}.
+     * @param nitems The number of items to request.
+     * @param candidates The candidate items to recommend from.
+     * @param exclude The items to exclude from the candidates.
+     * @param threshold The minimum test rating of a relevant item.
+     */
+    public TopNRecallMetric(String prefix, int nitems, ItemSelector candidates,
+                            ItemSelector exclude, double threshold) {
+        listSize = nitems;
+        this.candidates = candidates;
+        this.exclude = exclude;
+        this.threshold = threshold;
+        String label = String.format("Recall@%d", nitems);
+        columns = ImmutableList.of(prefix == null ? label : prefix + "." + label);
+    }
+
+    @Override
+    public TestUserMetricAccumulator makeAccumulator(AlgorithmInstance algorithm, TTDataSet data) {
+        return new Accumulator();
+    }
+
+    @Override
+    public List<String> getColumnLabels() {
+        return columns;
+    }
+
+    @Override
+    public List<String> getUserColumnLabels() {
+        return columns;
+    }
+
+    private class Accumulator implements TestUserMetricAccumulator {
+        private double totalRecall = 0;
+        private int userCount = 0;
+
+        @Nonnull
+        @Override
+        public Object[] evaluate(TestUser testUser) {
+            SparseVector ratings = testUser.getTestRatings();
+            int relevant = 0;
+            for (VectorEntry e: ratings.fast()) {
+                if (e.getValue() >= threshold) {
+                    relevant++;
+                }
+            }
+            if (relevant == 0) {
+                return new Object[1];
+            }
+            List<ScoredId> recommendations =
+                    testUser.getRecommendations(listSize, candidates, exclude);
+            if (recommendations == null) {
+                return new Object[1];
+            }
+
+            int hits = 0;
+            for (ScoredId id: recommendations) {
+                long item = id.getId();
+                if (ratings.containsKey(item) && ratings.get(item) >= threshold) {
+                    hits++;
+                }
+            }
+            double recall = (double) hits / relevant;
+            totalRecall += recall;
+            userCount += 1;
+            return new Object[]{recall};
+        }
+
+        @Nonnull
+        @Override
+        public Object[] finalResults() {
+            return new Object[]{userCount > 0 ? totalRecall / userCount : null};
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package edu.umn.cs.recsys;
+
+import it.unimi.dsi.fastutil.longs.*;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.grouplens.lenskit.core.Shareable;
+import org.grouplens.lenskit.core.Transient;
+import org.grouplens.lenskit.cursors.Cursor;
+import org.grouplens.lenskit.data.dao.EventDAO;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Per-user bitmaps of training items over a dense item index, built once from the training
+ * events.  Each user's bitmap stores only its non-zero 64-bit words, so candidate selection for
+ * top-N evaluation is word-level bit operations on a small array instead of building a hash set
+ * of the user's training items for every metric and algorithm.
+ *
+ * @see BitmapItemSelectors
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Shareable
+@DefaultProvider(TrainingItemBitmaps.Builder.class)
+public class TrainingItemBitmaps implements Serializable, MemoryFootprint {
+    private static final long serialVersionUID = 2L;
+    private static final int[] NO_WORDS = new int[0];
+    private static final long[] NO_BITS = new long[0];
+
+    private final long[] itemIds;
+    private final Long2ObjectMap<int[]> wordIndexes;
+    private final Long2ObjectMap<long[]> wordBits;
+    /**
+     * Dense item indexes from most to least rated in training.
+     */
+    private final int[] popularityOrder;
+
+    private TrainingItemBitmaps(long[] items, Long2ObjectMap<int[]> idx, Long2ObjectMap<long[]> bits,
+                                int[] popOrder) {
+        itemIds = items;
+        wordIndexes = idx;
+        wordBits = bits;
+        popularityOrder = popOrder;
+    }
+
+    /**
+     * Get the number of items in the dense index.
+     * @return The item count.
+     */
+    public int getItemCount() {
+        return itemIds.length;
+    }
+
+    /**
+     * Get the item at a position in the dense index.
+     * @param index The dense index, between 0 and {@link #getItemCount()}.
+     * @return The item ID.
+     */
+    public long getItemId(int index) {
+        return itemIds[index];
+    }
+
+    /**
+     * Query whether a user rated the item at a dense index in training.
+     * @param user The user ID.
+     * @param index The item's dense index.
+     * @return {@code true} if the item is one of the user's training items.
+     */
+    public boolean isTrainingItem(long user, int index) {
+        int[] idx = wordIndexes.get(user);
+        if (idx == null) {
+            return false;
+        }
+        int pos = Arrays.binarySearch(idx, index >>> 6);
+        return pos >= 0 && (wordBits.get(user)[pos] & (1L << (index & 63))) != 0;
+    }
+
+    /**
+     * Draw a random dense item index uniformly.
+     * @param rng The random number generator.
+     * @return The dense index of the drawn item.
+     */
+    public int sampleIndex(Random rng) {
+        return rng.nextInt(itemIds.length);
+    }
+
+    /**
+     * Draw a random dense item index uniformly from one popularity stratum.  The items are
+     * ordered from most to least rated in training and cut into {@code strata} strata of
+     * (nearly) equal item count; stratum 0 holds the most popular items.
+     * @param rng The random number generator.
+     * @param stratum The stratum to draw from, between 0 and {@code strata}.
+     * @param strata The number of strata, at most {@link #getItemCount()}.
+     * @return The dense index of the drawn item.
+     */
+    public int sampleIndex(Random rng, int stratum, int strata) {
+        int start = (int) ((long) stratum * itemIds.length / strata);
+        int end = (int) ((long) (stratum + 1) * itemIds.length / strata);
+        return popularityOrder[start + rng.nextInt(end - start)];
+    }
+
+    /**
+     * Get the set of items a user did not rate in training.  The set is a read-only view backed
+     * by the user's bitmap; nothing is copied.
+     * @param user The user ID.
+     * @return The user's candidate items.
+     */
+    public LongSet getUntrainedItems(long user) {
+        int[] idx = wordIndexes.get(user);
+        if (idx == null) {
+            return new CandidateSet(NO_WORDS, NO_BITS);
+        } else {
+            return new CandidateSet(idx, wordBits.get(user));
+        }
+    }
+
+    @Override
+    public long getRetainedSizeEstimate() {
+        long size = MemoryEstimates.OBJECT_HEADER
+                + MemoryEstimates.array(itemIds.length, 8)
+                + MemoryEstimates.array(popularityOrder.length, 4)
+                + 2 * MemoryEstimates.openHash(wordIndexes.size(), 8, MemoryEstimates.REFERENCE);
+        for (int[] idx: wordIndexes.values()) {
+            size += MemoryEstimates.array(idx.length, 4) + MemoryEstimates.array(idx.length, 8);
+        }
+        return size;
+    }
+
+    @Override
+    public long getEntryCount() {
+        return wordIndexes.size();
+    }
+
+    /**
+     * Complement of a sparse bitmap over the dense item index.
+     */
+    private class CandidateSet extends AbstractLongSet {
+        private final int[] words;
+        private final long[] bits;
+        private final int size;
+
+        CandidateSet(int[] words, long[] bits) {
+            this.words = words;
+            this.bits = bits;
+            int trained = 0;
+            for (long b: bits) {
+                trained += Long.bitCount(b);
+            }
+            size = itemIds.length - trained;
+        }
+
+        /**
+         * Get the complemented word at a position in the dense index.
+         */
+        private long word(int w) {
+            int pos = Arrays.binarySearch(words, w);
+            long b = pos >= 0 ? ~bits[pos] : -1L;
+            int rem = itemIds.length - (w << 6);
+            if (rem < 64) {
+                b &= (1L << rem) - 1;
+            }
+            return b;
+        }
+
+        @Override
+        public boolean contains(long item) {
+            int i = Arrays.binarySearch(itemIds, item);
+            return i >= 0 && (word(i >>> 6) & (1L << (i & 63))) != 0;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public LongIterator iterator() {
+            return new AbstractLongIterator() {
+                private final int nwords = (itemIds.length + 63) >>> 6;
+                private int w = 0;
+                private int sparse = 0;
+                private long current = nwords > 0 ? load(0) : 0;
+
+                private long load(int wi) {
+                    long b = -1L;
+                    if (sparse < words.length && words[sparse] == wi) {
+                        b = ~bits[sparse++];
+                    }
+                    int rem = itemIds.length - (wi << 6);
+                    if (rem < 64) {
+                        b &= (1L << rem) - 1;
+                    }
+                    return b;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    while (current == 0 && w + 1 < nwords) {
+                        w += 1;
+                        current = load(w);
+                    }
+                    return current != 0;
+                }
+
+                @Override
+                public long nextLong() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int bit = Long.numberOfTrailingZeros(current);
+                    current &= current - 1;
+                    return itemIds[(w << 6) + bit];
+                }
+            };
+        }
+    }
+
+    public static class Builder implements Provider<TrainingItemBitmaps> {
+        private final EventDAO eventDAO;
+        private final ItemDAO itemDAO;
+
+        @Inject
+        public Builder(@Transient EventDAO edao, @Transient ItemDAO idao) {
+            eventDAO = edao;
+            itemDAO = idao;
+        }
+
+        @Override
+        public TrainingItemBitmaps get() {
+            long[] items = itemDAO.getItemIds().toLongArray();
+            Arrays.sort(items);
+            int nwords = (items.length + 63) >>> 6;
+
+            // accumulate dense bitmaps per user, then keep only the non-zero words
+            Long2ObjectMap<long[]> dense = new Long2ObjectOpenHashMap<long[]>();
+            int[] counts = new int[items.length];
+            Cursor<Event> stream = eventDAO.streamEvents();
+            try {
+                for (Event e: stream) {
+                    int i = Arrays.binarySearch(items, e.getItemId());
+                    if (i < 0) {
+                        continue;
+                    }
+                    long[] bits = dense.get(e.getUserId());
+                    if (bits == null) {
+                        bits = new long[nwords];
+                        dense.put(e.getUserId(), bits);
+                    }
+                    bits[i >>> 6] |= 1L << (i & 63);
+                    counts[i] += 1;
+                }
+            } finally {
+                stream.close();
+            }
+
+            Long2ObjectMap<int[]> indexes = new Long2ObjectOpenHashMap<int[]>(dense.size());
+            Long2ObjectMap<long[]> compressed = new Long2ObjectOpenHashMap<long[]>(dense.size());
+            for (Long2ObjectMap.Entry<long[]> entry: dense.long2ObjectEntrySet()) {
+                long[] bits = entry.getValue();
+                int n = 0;
+                for (long b: bits) {
+                    if (b != 0) {
+                        n++;
+                    }
+                }
+                int[] idx = new int[n];
+                long[] vals = new long[n];
+                n = 0;
+                for (int w = 0; w < bits.length; w++) {
+                    if (bits[w] != 0) {
+                        idx[n] = w;
+                        vals[n] = bits[w];
+                        n++;
+                    }
+                }
+                indexes.put(entry.getLongKey(), idx);
+                compressed.put(entry.getLongKey(), vals);
+            }
+            // sort by decreasing count, then index, packed into one primitive key per item
+            long[] keys = new long[items.length];
+            for (int i = 0; i < items.length; i++) {
+                keys[i] = ((long) (Integer.MAX_VALUE - counts[i]) << 32) | i;
+            }
+            Arrays.sort(keys);
+            int[] popOrder = new int[items.length];
+            for (int i = 0; i < items.length; i++) {
+                popOrder[i] = (int) keys[i];
+            }
+            return new TrainingItemBitmaps(items, indexes, compressed, popOrder);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package edu.umn.cs.recsys.batch;
+
+import com.google.common.io.Closer;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.scored.ScoredIdListBuilder;
+import org.grouplens.lenskit.scored.ScoredIds;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A memory-mapped file of precomputed top-N recommendation lists.
+ *
+ * <p>The file starts with a fixed header, followed by an open-addressed hash table mapping user
+ * IDs to the offsets of their lists, followed by the list data.  Each list is stored as a varint
+ * length, the item IDs as zig-zag varint deltas from the previous item, and then one float score
+ * per item.  Lookups are constant time and {@link #read(long, long[], double[])} decodes directly
+ * into caller-supplied arrays, so serving a list allocates nothing.
+ *
+ * <p>Instances are safe to share between threads; all reads use absolute buffer positions.
+ *
+ * @see RecommendationFileWriter
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class RecommendationFile {
+    static final int MAGIC = 0x4c4b5452; // "LKTR"
+    static final int VERSION = 1;
+    /** Header: magic, version, list size, user count, table capacity. */
+    static final int HEADER_SIZE = 5 * 4;
+    static final int SLOT_SIZE = 8 + 8;
+    static final long EMPTY_SLOT = -1;
+
+    private final ByteBuffer buffer;
+    private final int listSize;
+    private final int userCount;
+    private final int tableMask;
+
+    private RecommendationFile(ByteBuffer buf) throws IOException {
+        buffer = buf;
+        if (buf.getInt(0) != MAGIC) {
+            throw new IOException("not a recommendation file");
+        }
+        int version = buf.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("unsupported recommendation file version " + version);
+        }
+        listSize = buf.getInt(8);
+        userCount = buf.getInt(12);
+        tableMask = buf.getInt(16) - 1;
+    }
+
+    /**
+     * Open a recommendation file by memory-mapping it.
+     * @param file The file to open.
+     * @return The mapped recommendation file.
+     * @throws IOException if the file cannot be read or is not a recommendation file.
+     */
+    public static RecommendationFile open(File file) throws IOException {
+        Closer closer = Closer.create();
+        try {
+            RandomAccessFile raf = closer.register(new RandomAccessFile(file, "r"));
+            FileChannel chan = closer.register(raf.getChannel());
+            // the mapping remains valid after the channel is closed
+            MappedByteBuffer buf = chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+            return new RecommendationFile(buf);
+        } catch (Throwable th) {
+            throw closer.rethrow(th, IOException.class);
+        } finally {
+            closer.close();
+        }
+    }
+
+    /**
+     * Get the list size the file was materialized with.
+     * @return The maximum length of each user's list.
+     */
+    public int getListSize() {
+        return listSize;
+    }
+
+    /**
+     * Get the number of users in the file.
+     * @return The user count.
+     */
+    public int getUserCount() {
+        return userCount;
+    }
+
+    /**
+     * Query whether the file has a list for a user.
+     * @param user The user ID.
+     * @return {@code true} if the user has a stored list.
+     */
+    public boolean hasUser(long user) {
+        return findOffset(user) >= 0;
+    }
+
+    /**
+     * Get the IDs of all users in the file.
+     * @return The user IDs, in table order.
+     */
+    public LongList getUserIds() {
+        LongArrayList users = new LongArrayList(userCount);
+        for (int slot = 0; slot <= tableMask; slot++) {
+            int pos = HEADER_SIZE + slot * SLOT_SIZE;
+            if (buffer.getLong(pos + 8) != EMPTY_SLOT) {
+                users.add(buffer.getLong(pos));
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Decode a user's list into caller-supplied arrays.  At most {@code items.length} entries are
+     * decoded (and {@code scores.length}, if scores are requested); longer lists are truncated to
+     * their highest-scoring prefix.
+     *
+     * @param user The user ID.
+     * @param items The array to receive item IDs, in decreasing score order.
+     * @param scores The array to receive scores, or {@code null} to skip them.
+     * @return The number of items decoded, or -1 if the user is not in the file.
+     */
+    public int read(long user, long[] items, double[] scores) {
+        long offset = findOffset(user);
+        if (offset < 0) {
+            return -1;
+        }
+        int pos = (int) offset;
+        int n = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(pos++);
+            n |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        int count = Math.min(n, items.length);
+        if (scores != null) {
+            count = Math.min(count, scores.length);
+        }
+        long prev = 0;
+        for (int i = 0; i < n; i++) {
+            if (i >= count) {
+                // skip the remaining deltas to reach the scores
+                while ((buffer.get(pos++) & 0x80) != 0) {
+                    // varint continuation byte
+                }
+                continue;
+            }
+            long zz = 0;
+            shift = 0;
+            do {
+                b = buffer.get(pos++);
+                zz |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            prev += (zz >>> 1) ^ -(zz & 1);
+            items[i] = prev;
+        }
+        if (scores != null) {
+            for (int i = 0; i < count; i++) {
+                scores[i] = buffer.getFloat(pos);
+                pos += 4;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get a user's list as scored IDs.  This is a convenience method that allocates; serving
+     * paths should prefer {@link #read(long, long[], double[])}.
+     *
+     * @param user The user ID.
+     * @return The user's recommendations, or an empty list if the user is not in the file.
+     */
+    public List<ScoredId> getRecommendations(long user) {
+        long[] items = new long[listSize];
+        double[] scores = new double[listSize];
+        int n = read(user, items, scores);
+        if (n < 0) {
+            return Collections.emptyList();
+        }
+        ScoredIdListBuilder builder = ScoredIds.newListBuilder();
+        for (int i = 0; i < n; i++) {
+            builder.add(items[i], scores[i]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Copy the raw encoded block for a user.  Used to carry unchanged users over when rewriting.
+     * @param user The user ID.
+     * @return The encoded block, or {@code null} if the user is not in the file.
+     */
+    byte[] copyBlock(long user) {
+        long offset = findOffset(user);
+        if (offset < 0) {
+            return null;
+        }
+        int start = (int) offset;
+        int pos = start;
+        int n = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(pos++);
+            n |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        for (int i = 0; i < n; i++) {
+            while ((buffer.get(pos++) & 0x80) != 0) {
+                // skip varint continuation bytes
+            }
+        }
+        pos += 4 * n;
+        byte[] block = new byte[pos - start];
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(start);
+        dup.get(block);
+        return block;
+    }
+
+    private long findOffset(long user) {
+        int slot = slotFor(user, tableMask);
+        while (true) {
+            int pos = HEADER_SIZE + slot * SLOT_SIZE;
+            long offset = buffer.getLong(pos + 8);
+            if (offset == EMPTY_SLOT) {
+                return -1;
+            } else if (buffer.getLong(pos) == user) {
+                return offset;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+    }
+
+    static int slotFor(long user, int mask) {
+        long h = user * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
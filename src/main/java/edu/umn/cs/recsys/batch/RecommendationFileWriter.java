@@ -0,0 +1,127 @@
+package edu.umn.cs.recsys.batch;
+
+import com.google.common.io.Closer;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.grouplens.lenskit.scored.ScoredId;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Write a {@link RecommendationFile}.  User lists are encoded with {@link #encode(List)}, which
+ * is thread-safe and can be run from worker threads; the encoded blocks are then added with
+ * {@link #put(long, byte[])} and laid out when the writer is closed.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class RecommendationFileWriter implements Closeable {
+    private final File outputFile;
+    private final int listSize;
+    private final Long2ObjectMap<byte[]> blocks = new Long2ObjectOpenHashMap<byte[]>();
+
+    /**
+     * Create a new writer.
+     * @param file The output file.
+     * @param n The list size recorded in the file header.
+     */
+    public RecommendationFileWriter(File file, int n) {
+        outputFile = file;
+        listSize = n;
+    }
+
+    /**
+     * Encode a recommendation list into the on-disk block format.
+     * @param recs The recommendations, in decreasing score order.
+     * @return The encoded block.
+     */
+    public static byte[] encode(List<ScoredId> recs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(2 + recs.size() * 8);
+        writeVarint(out, recs.size());
+        long prev = 0;
+        for (ScoredId id: recs) {
+            long delta = id.getId() - prev;
+            writeVarint(out, (delta << 1) ^ (delta >> 63));
+            prev = id.getId();
+        }
+        for (ScoredId id: recs) {
+            int bits = Float.floatToIntBits((float) id.getScore());
+            out.write(bits >>> 24);
+            out.write(bits >>> 16);
+            out.write(bits >>> 8);
+            out.write(bits);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Add a user's encoded list.
+     * @param user The user ID.
+     * @param block The block produced by {@link #encode(List)}.
+     */
+    public synchronized void put(long user, byte[] block) {
+        blocks.put(user, block);
+    }
+
+    /**
+     * Lay out and write the file.
+     * @throws IOException if there is an error writing the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        int capacity = Integer.highestOneBit(Math.max(2, blocks.size() * 2 - 1)) << 1;
+        int mask = capacity - 1;
+        long[] slotUsers = new long[capacity];
+        long[] slotOffsets = new long[capacity];
+        Arrays.fill(slotOffsets, RecommendationFile.EMPTY_SLOT);
+
+        // sort users so the data section is laid out in ID order
+        long[] users = blocks.keySet().toLongArray();
+        Arrays.sort(users);
+
+        long offset = RecommendationFile.HEADER_SIZE + (long) capacity * RecommendationFile.SLOT_SIZE;
+        for (long user: users) {
+            int slot = RecommendationFile.slotFor(user, mask);
+            while (slotOffsets[slot] != RecommendationFile.EMPTY_SLOT) {
+                slot = (slot + 1) & mask;
+            }
+            slotUsers[slot] = user;
+            slotOffsets[slot] = offset;
+            offset += blocks.get(user).length;
+        }
+        if (offset > Integer.MAX_VALUE) {
+            throw new IOException("recommendation file too large to map");
+        }
+
+        Closer closer = Closer.create();
+        try {
+            DataOutputStream out = closer.register(new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(outputFile))));
+            out.writeInt(RecommendationFile.MAGIC);
+            out.writeInt(RecommendationFile.VERSION);
+            out.writeInt(listSize);
+            out.writeInt(blocks.size());
+            out.writeInt(capacity);
+            for (int i = 0; i < capacity; i++) {
+                out.writeLong(slotUsers[i]);
+                out.writeLong(slotOffsets[i]);
+            }
+            for (long user: users) {
+                out.write(blocks.get(user));
+            }
+        } catch (Throwable th) {
+            throw closer.rethrow(th, IOException.class);
+        } finally {
+            closer.close();
+        }
+    }
+}
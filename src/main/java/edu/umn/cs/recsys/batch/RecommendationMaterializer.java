@@ -0,0 +1,143 @@
+package edu.umn.cs.recsys.batch;
+
+import com.google.common.base.Throwables;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.ItemRecommender;
+import org.grouplens.lenskit.core.LenskitRecommender;
+import org.grouplens.lenskit.core.LenskitRecommenderEngine;
+import org.grouplens.lenskit.data.dao.UserDAO;
+import org.grouplens.lenskit.scored.ScoredId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Batch job that precomputes top-N lists for every user and writes them to a
+ * {@link RecommendationFile}.  Users are split across worker threads, each of which opens its
+ * own recommender from the shared engine.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class RecommendationMaterializer {
+    private static final Logger logger = LoggerFactory.getLogger(RecommendationMaterializer.class);
+
+    private final LenskitRecommenderEngine engine;
+    private final UserDAO userDAO;
+    private final int listSize;
+    private final int threadCount;
+
+    /**
+     * Create a new materializer.
+     * @param engine The engine to open recommenders from.
+     * @param udao The user DAO listing the users to materialize (typically a
+     *             {@link edu.umn.cs.recsys.dao.MOOCUserDAO}).
+     * @param n The number of items to store per user.
+     * @param nthreads The number of worker threads.
+     */
+    public RecommendationMaterializer(LenskitRecommenderEngine engine, UserDAO udao,
+                                      int n, int nthreads) {
+        this.engine = engine;
+        userDAO = udao;
+        listSize = n;
+        threadCount = nthreads;
+    }
+
+    /**
+     * Compute and write lists for all users.
+     * @param output The file to write.
+     * @throws IOException if there is an error writing the file.
+     */
+    public void materialize(File output) throws IOException {
+        materialize(output, null, null);
+    }
+
+    /**
+     * Write lists for all users, recomputing only those whose ratings have changed.  Users not in
+     * {@code changed} are copied from the previous file without re-scoring; users missing from
+     * the previous file are always computed.  If {@code previous} was written with a different
+     * list size, its lists cannot be reused and every user is re-scored.
+     *
+     * @param output The file to write.  It must not be the same file as {@code previous}.
+     * @param previous The previously materialized file, or {@code null} to compute everyone.
+     * @param changed The users whose ratings changed since {@code previous} was written.
+     * @throws IOException if there is an error reading or writing the files.
+     */
+    public void materialize(File output, @Nullable RecommendationFile previous,
+                            @Nullable LongSet changed) throws IOException {
+        if (previous != null && previous.getListSize() != listSize) {
+            logger.warn("previous file has list size {}, not {}; re-scoring all users",
+                        previous.getListSize(), listSize);
+            previous = null;
+        }
+        RecommendationFileWriter writer = new RecommendationFileWriter(output, listSize);
+        LongList toCompute = new LongArrayList();
+        int copied = 0;
+        for (long user: userDAO.getUserIds()) {
+            byte[] block = null;
+            if (previous != null && (changed == null || !changed.contains(user))) {
+                block = previous.copyBlock(user);
+            }
+            if (block != null) {
+                writer.put(user, block);
+                copied += 1;
+            } else {
+                toCompute.add(user);
+            }
+        }
+        logger.info("materializing {} users ({} unchanged) with {} threads",
+                    toCompute.size(), copied, threadCount);
+
+        ExecutorService exec = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> tasks = new ArrayList<Future<?>>(threadCount);
+            int chunk = (toCompute.size() + threadCount - 1) / threadCount;
+            for (int start = 0; start < toCompute.size(); start += chunk) {
+                int end = Math.min(start + chunk, toCompute.size());
+                tasks.add(exec.submit(new Worker(toCompute.subList(start, end), writer)));
+            }
+            for (Future<?> task: tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("materialization interrupted", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            exec.shutdownNow();
+        }
+        writer.close();
+    }
+
+    private class Worker implements Runnable {
+        private final LongList users;
+        private final RecommendationFileWriter writer;
+
+        Worker(LongList users, RecommendationFileWriter writer) {
+            this.users = users;
+            this.writer = writer;
+        }
+
+        @Override
+        public void run() {
+            LenskitRecommender rec = engine.createRecommender();
+            ItemRecommender irec = rec.getItemRecommender();
+            if (irec == null) {
+                throw new IllegalStateException("recommender has no item recommender");
+            }
+            for (long user: users) {
+                List<ScoredId> recs = irec.recommend(user, listSize);
+                writer.put(user, RecommendationFileWriter.encode(recs));
+            }
+            logger.debug("materialized {} users", users.size());
+        }
+    }
+}
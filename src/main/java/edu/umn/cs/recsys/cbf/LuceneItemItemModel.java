@@ -4,17 +4,19 @@ import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.io.Closer;
+import edu.umn.cs.recsys.MemoryEstimates;
+import edu.umn.cs.recsys.MemoryFootprint;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongSortedSet;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similar.MoreLikeThis;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.grouplens.lenskit.collections.LongUtils;
-import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.core.Shareable;
 import org.grouplens.lenskit.knn.item.ModelSize;
 import org.grouplens.lenskit.knn.item.model.ItemItemModel;
 import org.grouplens.lenskit.scored.ScoredId;
@@ -25,35 +27,80 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 /**
- * The Lucene-backed CBF model.
+ * The Lucene-backed CBF model.  The index is opened once, and a docid&rarr;movie ID array is
+ * built at open time so neighbor retrieval never has to load stored documents.  Only the
+ * in-memory directory is serialized; the reader and lookup tables are rebuilt on load.
  * @author Michael Ekstrand
  */
+@Shareable
 @DefaultProvider(LuceneModelBuilder.class)
-public class LuceneItemItemModel implements ItemItemModel {
+public class LuceneItemItemModel implements ItemItemModel, Serializable, MemoryFootprint {
+    private static final long serialVersionUID = 1L;
     private static Logger logger = LoggerFactory.getLogger(LuceneItemItemModel.class);
 
     private final Directory luceneDir;
-    private final ItemDAO itemDAO;
     private final int toFetch;
-    private final LoadingCache<Long,List<ScoredId>> cache;
+    private transient IndexReader reader;
+    private transient IndexSearcher searcher;
+    private transient long[] docMovies;
+    private transient Long2IntMap movieDocs;
+    private transient LongSortedSet itemUniverse;
+    private transient LoadingCache<Long,List<ScoredId>> cache;
 
-    LuceneItemItemModel(Directory dir, ItemDAO idao, @ModelSize int nnbrs) {
+    LuceneItemItemModel(Directory dir, @ModelSize int nnbrs) {
         luceneDir = dir;
-        itemDAO = idao;
         toFetch = nnbrs;
         logger.debug("initializing indexed model with size {}", nnbrs);
+        openIndex();
+    }
+
+    /**
+     * Open the index and build the in-memory lookup tables.  Called on construction and again
+     * after deserialization, since only the directory itself is serialized.
+     */
+    private void openIndex() {
+        try {
+            reader = IndexReader.open(luceneDir);
+            searcher = new IndexSearcher(reader);
+            // map document IDs to movie IDs once, so neighbor queries never load stored fields
+            int maxDoc = reader.maxDoc();
+            docMovies = new long[maxDoc];
+            movieDocs = new Long2IntOpenHashMap(maxDoc);
+            movieDocs.defaultReturnValue(-1);
+            for (int doc = 0; doc < maxDoc; doc++) {
+                if (reader.isDeleted(doc)) {
+                    docMovies[doc] = -1;
+                } else {
+                    long mid = Long.parseLong(reader.document(doc).get("movie"));
+                    docMovies[doc] = mid;
+                    if (movieDocs.put(mid, doc) >= 0) {
+                        logger.warn("found multiple matches for {}", mid);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("I/O error opening movie model", e);
+        }
+        itemUniverse = LongUtils.packedSet(movieDocs.keySet());
         cache = CacheBuilder.newBuilder()
                             .build(new LuceneCacheLoader());
     }
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        openIndex();
+    }
+
     @Override
     public LongSortedSet getItemUniverse() {
-        return LongUtils.packedSet(itemDAO.getItemIds());
+        return itemUniverse;
     }
 
     @Nonnull
@@ -68,59 +115,58 @@ public class LuceneItemItemModel implements ItemItemModel {
     }
 
     public List<ScoredId> getNeighborsImpl(long item) {
-        try {
-            Closer closer = Closer.create();
-            try {
-                IndexReader reader = closer.register(IndexReader.open(luceneDir));
-                IndexSearcher idx = closer.register(new IndexSearcher(reader));;
-
-                Term term = new Term("movie", Long.toString(item));
-                Query tq = new TermQuery(term);
-                TopDocs docs = idx.search(tq, 1);
-                if (docs.totalHits > 1) {
-                    logger.warn("found multiple matches for {}", item);
-                } else if (docs.totalHits == 0) {
-                    logger.warn("could not find movie {}", item);
-                    return Collections.emptyList();
-                }
-
-                int docid = docs.scoreDocs[0].doc;
-                Document doc = idx.doc(docid);
-                Long mid = Long.parseLong(doc.get("movie"));
-                if (mid != item) {
-                    logger.error("retrieved document doesn't match ({} != {})", mid, item);
-                    return Collections.emptyList();
-                }
-                logger.trace("movie {} has index {}", item, docid);
-                logger.trace("finding neighbors for movie {} ({})", item, doc.get("title"));
+        int docid = movieDocs.get(item);
+        if (docid < 0) {
+            logger.warn("could not find movie {}", item);
+            return Collections.emptyList();
+        }
+        logger.trace("movie {} has index {}", item, docid);
 
-                MoreLikeThis mlt = new MoreLikeThis(idx.getIndexReader());
-                mlt.setFieldNames(new String[]{"title", "genres", "tags"});
-                Query q = mlt.like(docid);
-                TopDocs results = idx.search(q, toFetch + 1);
+        try {
+            MoreLikeThis mlt = new MoreLikeThis(reader);
+            mlt.setFieldNames(new String[]{"title", "genres", "tags"});
+            Query q = mlt.like(docid);
+            TopDocs results = searcher.search(q, toFetch + 1);
 
-                logger.trace("index returned {} of {} similar movies",
-                             results.scoreDocs.length, results.totalHits);
-                ScoredIdListBuilder builder = ScoredIds.newListBuilder();
-                for (ScoreDoc sd: results.scoreDocs) {
-                    Document nbrdoc = idx.doc(sd.doc);
-                    long id = Long.parseLong(nbrdoc.get("movie"));
-                    if (id != item) {
-                        builder.add(id, sd.score);
-                    }
+            logger.trace("index returned {} of {} similar movies",
+                         results.scoreDocs.length, results.totalHits);
+            ScoredIdListBuilder builder = ScoredIds.newListBuilder();
+            for (ScoreDoc sd: results.scoreDocs) {
+                long id = docMovies[sd.doc];
+                if (id != item) {
+                    builder.add(id, sd.score);
                 }
-                logger.trace("returning {} neighbors", builder.size());
-                return builder.sort(ScoredIds.scoreOrder()).build();
-            } catch (Throwable th) {
-                throw closer.rethrow(th);
-            } finally {
-                closer.close();
             }
+            logger.trace("returning {} neighbors", builder.size());
+            return builder.sort(ScoredIds.scoreOrder()).build();
         } catch (IOException e) {
             throw new RuntimeException("I/O error fetching neighbors", e);
         }
     }
 
+    @Override
+    public long getRetainedSizeEstimate() {
+        long size = MemoryEstimates.array(docMovies.length, 8)
+                + MemoryEstimates.openHash(movieDocs.size(), 8, 4)
+                + MemoryEstimates.array(itemUniverse.size(), 8);
+        if (luceneDir instanceof RAMDirectory) {
+            size += ((RAMDirectory) luceneDir).sizeInBytes();
+        }
+        // each cached neighbor list holds up to toFetch scored IDs (object, ID, score)
+        long scoredId = MemoryEstimates.OBJECT_HEADER + 16 + MemoryEstimates.REFERENCE;
+        for (List<ScoredId> nbrs: cache.asMap().values()) {
+            size += MemoryEstimates.OBJECT_HEADER + MemoryEstimates.BOXED_WORD
+                    + MemoryEstimates.array(nbrs.size(), MemoryEstimates.REFERENCE)
+                    + nbrs.size() * scoredId;
+        }
+        return size;
+    }
+
+    @Override
+    public long getEntryCount() {
+        return movieDocs.size();
+    }
+
     private class LuceneCacheLoader extends CacheLoader<Long,List<ScoredId>> {
         @Override
         public List<ScoredId> load(Long key) throws Exception {
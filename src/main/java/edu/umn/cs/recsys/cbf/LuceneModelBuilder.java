@@ -1,6 +1,9 @@
 package edu.umn.cs.recsys.cbf;
 
+import com.google.common.base.Throwables;
 import edu.umn.cs.recsys.dao.ItemTagDAO;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
@@ -11,6 +14,7 @@ import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.Version;
+import org.grouplens.lenskit.core.Transient;
 import org.grouplens.lenskit.knn.item.ModelSize;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,8 +22,15 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
 
 /**
+ * Build the Lucene movie model.  Movies are indexed in parallel, one segment per thread, and the
+ * segments are merged into the model's directory at the end.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class LuceneModelBuilder implements Provider<LuceneItemItemModel> {
@@ -28,7 +39,7 @@ public class LuceneModelBuilder implements Provider<LuceneItemItemModel> {
     private final int modelNeighborCount;
 
     @Inject
-    public LuceneModelBuilder(ItemTagDAO dao, @ModelSize int nnbrs) {
+    public LuceneModelBuilder(@Transient ItemTagDAO dao, @ModelSize int nnbrs) {
         this.dao = dao;
         this.modelNeighborCount = nnbrs;
     }
@@ -42,27 +53,82 @@ public class LuceneModelBuilder implements Provider<LuceneItemItemModel> {
         } catch (IOException e) {
             throw new RuntimeException("I/O error writing movie model", e);
         }
-        return new LuceneItemItemModel(dir, dao, modelNeighborCount);
+        return new LuceneItemItemModel(dir, modelNeighborCount);
     }
 
     private void writeMovies(Directory dir) throws IOException {
         Analyzer analyzer = new EnglishAnalyzer(Version.LUCENE_35);
-        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_35, analyzer);
-        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        LongList movies = new LongArrayList(dao.getItemIds());
+        int nthreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                                            movies.size()));
+        logger.info("Building Lucene movie model with {} threads", nthreads);
 
-        IndexWriter writer = new IndexWriter(dir, config);
+        // each thread indexes a slice of the movies into its own segment directory
+        ExecutorService exec = Executors.newFixedThreadPool(nthreads);
+        Directory[] segments = new Directory[nthreads];
         try {
-            logger.info("Building Lucene movie model");
-            for (long movie: dao.getItemIds()) {
-                logger.debug("building model for {}", movie);
-                Document doc = makeMovieDocument(movie);
-                writer.addDocument(doc);
+            List<Future<?>> tasks = new ArrayList<Future<?>>(nthreads);
+            int chunk = (movies.size() + nthreads - 1) / nthreads;
+            for (int i = 0; i < nthreads; i++) {
+                int start = Math.min(i * chunk, movies.size());
+                int end = Math.min(start + chunk, movies.size());
+                segments[i] = new RAMDirectory();
+                tasks.add(exec.submit(new SegmentWriter(segments[i], analyzer,
+                                                        movies.subList(start, end))));
+            }
+            for (Future<?> task: tasks) {
+                task.get();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted building movie model");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            exec.shutdownNow();
+        }
+
+        IndexWriter writer = new IndexWriter(dir, newConfig(analyzer));
+        try {
+            writer.addIndexes(segments);
         } finally {
             writer.close();
         }
     }
 
+    private static IndexWriterConfig newConfig(Analyzer analyzer) {
+        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_35, analyzer);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        return config;
+    }
+
+    private class SegmentWriter implements Callable<Void> {
+        private final Directory directory;
+        private final Analyzer analyzer;
+        private final LongList movies;
+
+        SegmentWriter(Directory dir, Analyzer analyzer, LongList movies) {
+            directory = dir;
+            this.analyzer = analyzer;
+            this.movies = movies;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            IndexWriter writer = new IndexWriter(directory, newConfig(analyzer));
+            try {
+                for (long movie: movies) {
+                    logger.debug("building model for {}", movie);
+                    writer.addDocument(makeMovieDocument(movie));
+                }
+            } finally {
+                writer.close();
+            }
+            return null;
+        }
+    }
+
     private Document makeMovieDocument(long movieId) {
         Document doc = new Document();
         doc.add(new Field("movie", Long.toString(movieId),
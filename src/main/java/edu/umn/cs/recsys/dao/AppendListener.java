@@ -0,0 +1,17 @@
+package edu.umn.cs.recsys.dao;
+
+import java.util.List;
+
+/**
+ * Listener notified when a DAO picks up records appended to its data file.
+ *
+ * @param <E> The type of record.
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public interface AppendListener<E> {
+    /**
+     * Called after a refresh has published a new version containing the appended records.
+     * @param delta The newly-appended records, in file order.
+     */
+    void recordsAppended(List<E> delta);
+}
@@ -0,0 +1,159 @@
+package edu.umn.cs.recsys.dao;
+
+import com.google.common.base.Charsets;
+import org.grouplens.lenskit.data.dao.DataAccessException;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the delimited lines appended to a file since the last read.  The reader remembers the
+ * byte offset just past the last line it returned, so each call parses only the new tail.
+ *
+ * <p>{@link #readAll()} parses the whole file, including a last line without a newline.
+ * {@link #readAppended()} leaves an unterminated line for the next call, since the writer may
+ * still be in the middle of it.
+ *
+ * <p>To notice a rewritten file, the reader keeps a copy of the last {@value #SIGNATURE_SIZE}
+ * bytes before its offset and compares them with the file on each call.  A rewrite that leaves
+ * the file at least as long and those bytes unchanged is not detected.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+class AppendedLineReader implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int SIGNATURE_SIZE = 4096;
+
+    private final File file;
+    private final Pattern delimiter;
+    private long offset = 0;
+    private byte[] signature = new byte[0];
+    /**
+     * Whether the last line consumed had no newline, so the next appended byte must end it.
+     */
+    private boolean openLine = false;
+
+    AppendedLineReader(File file, String delim) {
+        this.file = file;
+        delimiter = Pattern.compile(Pattern.quote(delim));
+    }
+
+    /**
+     * Read every line in the file from the beginning, including a final line with no newline.
+     * @return The split fields of each non-empty line.
+     * @throws DataAccessException if the file cannot be read.
+     */
+    synchronized List<String[]> readAll() {
+        offset = 0;
+        signature = new byte[0];
+        openLine = false;
+        List<String[]> lines = read(true);
+        assert lines != null;
+        return lines;
+    }
+
+    /**
+     * Read the complete lines appended since the last call.
+     * @return The split fields of each new non-empty line, or {@code null} if the file no longer
+     *         matches what was read: it is shorter than the consumed offset, the bytes before the
+     *         offset have changed, or a last line read without a newline has been extended.
+     *         The caller should then {@linkplain #readAll() read the whole file} again.
+     * @throws DataAccessException if the file cannot be read.
+     */
+    @Nullable
+    synchronized List<String[]> readAppended() {
+        return read(false);
+    }
+
+    @Nullable
+    private List<String[]> read(boolean includeTail) {
+        long length = file.length();
+        if (length < offset) {
+            return null;
+        }
+
+        List<String[]> lines = new ArrayList<String[]>();
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                if (!signatureMatches(raf)) {
+                    return null;
+                } else if (length == offset) {
+                    return Collections.emptyList();
+                }
+
+                raf.seek(offset);
+                InputStream in = new BufferedInputStream(Channels.newInputStream(raf.getChannel()),
+                                                         65536);
+                ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+                long pos = offset;
+                int b;
+                if (openLine) {
+                    // the consumed tail must be ended by a newline, not continued
+                    b = in.read();
+                    if (b == '\r') {
+                        pos++;
+                        b = in.read();
+                    }
+                    if (b != '\n') {
+                        return b < 0 ? Collections.<String[]>emptyList() : null;
+                    }
+                    pos++;
+                    offset = pos;
+                    openLine = false;
+                }
+                while ((b = in.read()) >= 0) {
+                    pos++;
+                    if (b == '\n') {
+                        addLine(lines, line);
+                        line.reset();
+                        offset = pos;
+                    } else {
+                        line.write(b);
+                    }
+                }
+                if (includeTail && line.size() > 0) {
+                    addLine(lines, line);
+                    offset = pos;
+                    openLine = true;
+                }
+                signature = new byte[(int) Math.min(SIGNATURE_SIZE, offset)];
+                raf.seek(offset - signature.length);
+                raf.readFully(signature);
+            } finally {
+                raf.close();
+            }
+        } catch (FileNotFoundException e) {
+            throw new DataAccessException("cannot open file", e);
+        } catch (IOException e) {
+            throw new DataAccessException("error reading " + file, e);
+        }
+        return lines;
+    }
+
+    private boolean signatureMatches(RandomAccessFile raf) throws IOException {
+        if (signature.length == 0) {
+            return true;
+        }
+        byte[] current = new byte[signature.length];
+        raf.seek(offset - signature.length);
+        raf.readFully(current);
+        return Arrays.equals(current, signature);
+    }
+
+    private void addLine(List<String[]> lines, ByteArrayOutputStream bytes) {
+        String line = new String(bytes.toByteArray(), Charsets.UTF_8);
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        if (!line.isEmpty()) {
+            lines.add(delimiter.split(line));
+        }
+    }
+}
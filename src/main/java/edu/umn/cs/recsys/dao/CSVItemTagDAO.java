@@ -1,72 +1,125 @@
 package edu.umn.cs.recsys.dao;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import edu.umn.cs.recsys.MemoryEstimates;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
-import org.grouplens.lenskit.cursors.Cursor;
-import org.grouplens.lenskit.data.dao.DataAccessException;
-import org.grouplens.lenskit.util.DelimitedTextCursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
+ * Item tag DAO reading tags from a CSV file.  The tags are loaded on first use;
+ * {@link #refresh()} then reads only the lines appended to the file since the last load and
+ * publishes a new immutable version that shares the unchanged items' tag lists, and all but the
+ * newest few layers of its item index, with the previous one.  When serialized with an engine,
+ * only the file locations are written, as in {@link MOOCRatingDAO}.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class CSVItemTagDAO extends MOOCItemDAO implements ItemTagDAO {
-    private final File tagFile;
-    private transient volatile Long2ObjectMap<List<String>> tagCache;
-    private transient volatile Set<String> vocabCache;
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(CSVItemTagDAO.class);
+
+    private final AppendedLineReader tagReader;
+    private transient List<AppendListener<ItemTag>> listeners =
+            new CopyOnWriteArrayList<AppendListener<ItemTag>>();
+    private transient volatile TagData tagData;
 
     @Inject
     public CSVItemTagDAO(@TitleFile File titles, @TagFile File tags) {
         super(titles);
-        tagFile = tags;
+        tagReader = new AppendedLineReader(tags, ",");
     }
 
     private void ensureTagCache() {
-        if (tagCache == null) {
+        if (tagData == null) {
             synchronized (this) {
-                if (tagCache == null) {
-                    tagCache = new Long2ObjectOpenHashMap<List<String>>();
-                    ImmutableSet.Builder<String> vocabBuilder = ImmutableSet.builder();
-                    Cursor<String[]> lines = null;
-                    try {
-                        lines = new DelimitedTextCursor(tagFile, ",");
-                    } catch (FileNotFoundException e) {
-                        throw new DataAccessException("cannot open file", e);
-                    }
-                    try {
-                        for (String[] line: lines) {
-                            long mid = Long.parseLong(line[0]);
-                            List<String> tags = tagCache.get(mid);
-                            if (tags == null) {
-                                tags = new ArrayList<String>();
-                                tagCache.put(mid, tags);
-                            }
-                            tags.add(line[1]);
-                            vocabBuilder.add(line[1]);
-                        }
-                    } finally {
-                        lines.close();
-                    }
-                    vocabCache = vocabBuilder.build();
+                if (tagData == null) {
+                    tagData = TagData.EMPTY.extend(parseTags(tagReader.readAll()));
                 }
             }
         }
     }
 
+    private static List<ItemTag> parseTags(List<String[]> lines) {
+        List<ItemTag> tags = new ArrayList<ItemTag>(lines.size());
+        for (String[] line: lines) {
+            tags.add(new ItemTag(Long.parseLong(line[0]), line[1]));
+        }
+        return tags;
+    }
+
+    /**
+     * Pick up tags appended to the tag file since the last load.  Listeners are notified with
+     * the new tags after the new version is published.  A last line without a newline is left
+     * for a later refresh.  If the file is shorter than what was read, or the bytes just before
+     * the read offset have changed (see {@link AppendedLineReader}), all tags are reloaded and
+     * listeners are not notified.
+     *
+     * @return The number of new tag applications read.
+     */
+    public synchronized int refresh() {
+        if (tagData == null) {
+            ensureTagCache();
+            return 0;
+        }
+        List<String[]> lines = tagReader.readAppended();
+        if (lines == null) {
+            logger.warn("tag file changed before the last read offset, reloading all tags");
+            tagData = TagData.EMPTY.extend(parseTags(tagReader.readAll()));
+            return 0;
+        }
+        if (lines.isEmpty()) {
+            return 0;
+        }
+        List<ItemTag> delta = parseTags(lines);
+        tagData = tagData.extend(delta);
+        logger.info("read {} appended tags", delta.size());
+        List<ItemTag> view = Collections.unmodifiableList(delta);
+        for (AppendListener<ItemTag> listener: listeners) {
+            listener.recordsAppended(view);
+        }
+        return delta.size();
+    }
+
+    /**
+     * Register a listener for tags picked up by {@link #refresh()}.
+     * @param listener The listener.
+     */
+    public void addListener(AppendListener<ItemTag> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(AppendListener<ItemTag> listener) {
+        listeners.remove(listener);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // listeners belong to the writing process, and the data is reloaded on first use
+        listeners = new CopyOnWriteArrayList<AppendListener<ItemTag>>();
+    }
+
     @Override
     public List<String> getItemTags(long item) {
         ensureTagCache();
-        List<String> tags = tagCache.get(item);
+        List<String> tags = tagData.get(item);
         if (tags != null) {
-            return Collections.unmodifiableList(tags);
+            return tags;
         } else {
             return Collections.emptyList();
         }
@@ -75,6 +128,151 @@ public class CSVItemTagDAO extends MOOCItemDAO implements ItemTagDAO {
     @Override
     public Set<String> getTagVocabulary() {
         ensureTagCache();
-        return vocabCache;
+        return tagData.vocab;
+    }
+
+    @Override
+    public long getRetainedSizeEstimate() {
+        long size = super.getRetainedSizeEstimate();
+        TagData data = tagData;
+        if (data != null) {
+            for (Long2ObjectMap<List<String>> layer: data.layers) {
+                size += MemoryEstimates.openHash(layer.size(), 8, MemoryEstimates.REFERENCE);
+            }
+            for (List<String> list: data.itemTags()) {
+                size += MemoryEstimates.OBJECT_HEADER
+                        + MemoryEstimates.array(list.size(), MemoryEstimates.REFERENCE)
+                        + MemoryEstimates.strings(list);
+            }
+            size += MemoryEstimates.array(data.vocab.size() * 2, MemoryEstimates.REFERENCE)
+                    + MemoryEstimates.strings(data.vocab);
+        }
+        return size;
+    }
+
+    @Override
+    public long getEntryCount() {
+        TagData data = tagData;
+        long count = 0;
+        if (data != null) {
+            for (List<String> list: data.itemTags()) {
+                count += list.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * An immutable version of the tag data, stored as layers of item tag lists, oldest first.
+     * A layer holds the complete tag list of each item it contains, so the newest layer holding
+     * an item has its tags.  Each layer also holds the tags it added to the vocabulary.  A new
+     * layer is merged with the layers before it while they are less than twice its size, so
+     * there are at most logarithmically many and a refresh copies only the small newest layers,
+     * not the whole catalog.
+     */
+    private static class TagData {
+        static final TagData EMPTY = new TagData(ImmutableList.<Long2ObjectMap<List<String>>>of(),
+                                                 ImmutableList.<Set<String>>of());
+
+        final List<Long2ObjectMap<List<String>>> layers;
+        final List<Set<String>> vocabLayers;
+        final Set<String> vocab;
+
+        TagData(List<Long2ObjectMap<List<String>>> layers, List<Set<String>> vocabLayers) {
+            this.layers = layers;
+            this.vocabLayers = vocabLayers;
+            Set<String> all = ImmutableSet.of();
+            for (Set<String> layer: vocabLayers) {
+                all = Sets.union(all, layer);
+            }
+            vocab = Collections.unmodifiableSet(all);
+        }
+
+        List<String> get(long item) {
+            for (int i = layers.size() - 1; i >= 0; i--) {
+                List<String> tags = layers.get(i).get(item);
+                if (tags != null) {
+                    return tags;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Get every item's current tag list.
+         */
+        Iterable<List<String>> itemTags() {
+            List<List<String>> lists = new ArrayList<List<String>>();
+            for (int i = layers.size() - 1; i >= 0; i--) {
+                for (Long2ObjectMap.Entry<List<String>> e: layers.get(i).long2ObjectEntrySet()) {
+                    if (isNewest(e.getLongKey(), i)) {
+                        lists.add(e.getValue());
+                    }
+                }
+            }
+            return lists;
+        }
+
+        private boolean isNewest(long item, int layer) {
+            for (int j = layer + 1; j < layers.size(); j++) {
+                if (layers.get(j).containsKey(item)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Make a new version with additional tags.  Only the lists of items that gained tags
+         * are copied; all other lists are shared with this version.
+         */
+        TagData extend(List<ItemTag> delta) {
+            Long2ObjectMap<List<String>> grown = new Long2ObjectOpenHashMap<List<String>>();
+            for (ItemTag it: delta) {
+                List<String> list = grown.get(it.getItemId());
+                if (list == null) {
+                    list = new ArrayList<String>();
+                    grown.put(it.getItemId(), list);
+                }
+                list.add(it.getTag());
+            }
+
+            Long2ObjectMap<List<String>> layer = new Long2ObjectOpenHashMap<List<String>>(grown.size());
+            ImmutableSet.Builder<String> newTags = ImmutableSet.builder();
+            for (Long2ObjectMap.Entry<List<String>> e: grown.long2ObjectEntrySet()) {
+                List<String> old = get(e.getLongKey());
+                ImmutableList.Builder<String> merged = ImmutableList.builder();
+                if (old != null) {
+                    merged.addAll(old);
+                }
+                merged.addAll(e.getValue());
+                layer.put(e.getLongKey(), merged.build());
+                for (String tag: e.getValue()) {
+                    if (!vocab.contains(tag)) {
+                        newTags.add(tag);
+                    }
+                }
+            }
+
+            List<Long2ObjectMap<List<String>>> nextLayers =
+                    new ArrayList<Long2ObjectMap<List<String>>>(layers);
+            List<Set<String>> nextVocab = new ArrayList<Set<String>>(vocabLayers);
+            Set<String> layerVocab = newTags.build();
+            int last = nextLayers.size() - 1;
+            while (last >= 0 && nextLayers.get(last).size() < 2 * layer.size()) {
+                Long2ObjectMap<List<String>> merged =
+                        new Long2ObjectOpenHashMap<List<String>>(nextLayers.remove(last));
+                merged.putAll(layer);
+                layer = merged;
+                layerVocab = ImmutableSet.<String>builder()
+                                         .addAll(nextVocab.remove(last))
+                                         .addAll(layerVocab)
+                                         .build();
+                last--;
+            }
+            nextLayers.add(Long2ObjectMaps.unmodifiable(layer));
+            nextVocab.add(layerVocab);
+            return new TagData(ImmutableList.copyOf(nextLayers), ImmutableList.copyOf(nextVocab));
+        }
     }
 }
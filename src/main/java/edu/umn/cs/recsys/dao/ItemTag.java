@@ -0,0 +1,29 @@
+package edu.umn.cs.recsys.dao;
+
+/**
+ * A single application of a tag to an item, as read from the tag file.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public final class ItemTag {
+    private final long itemId;
+    private final String tag;
+
+    public ItemTag(long item, String tag) {
+        itemId = item;
+        this.tag = tag;
+    }
+
+    public long getItemId() {
+        return itemId;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    @Override
+    public String toString() {
+        return itemId + ":" + tag;
+    }
+}
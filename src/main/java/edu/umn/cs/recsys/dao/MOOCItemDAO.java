@@ -1,5 +1,7 @@
 package edu.umn.cs.recsys.dao;
 
+import edu.umn.cs.recsys.MemoryEstimates;
+import edu.umn.cs.recsys.MemoryFootprint;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongSet;
@@ -11,11 +13,14 @@ import org.grouplens.lenskit.util.DelimitedTextCursor;
 import javax.inject.Inject;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.Serializable;
 
 /**
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
-public class MOOCItemDAO implements ItemTitleDAO {
+public class MOOCItemDAO implements ItemTitleDAO, MemoryFootprint, Serializable {
+    private static final long serialVersionUID = 1L;
+
     private final File titleFile;
     private transient volatile Long2ObjectMap<String> titleCache;
 
@@ -64,4 +69,20 @@ public class MOOCItemDAO implements ItemTitleDAO {
         ensureTitleCache();
         return titleCache.get(item);
     }
+
+    @Override
+    public long getRetainedSizeEstimate() {
+        Long2ObjectMap<String> titles = titleCache;
+        if (titles == null) {
+            return 0;
+        }
+        return MemoryEstimates.openHash(titles.size(), 8, MemoryEstimates.REFERENCE)
+                + MemoryEstimates.strings(titles.values());
+    }
+
+    @Override
+    public long getEntryCount() {
+        Long2ObjectMap<String> titles = titleCache;
+        return titles == null ? 0 : titles.size();
+    }
 }
@@ -1,31 +1,75 @@
 package edu.umn.cs.recsys.dao;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import edu.umn.cs.recsys.MemoryEstimates;
+import edu.umn.cs.recsys.MemoryFootprint;
 import org.grouplens.lenskit.cursors.Cursor;
 import org.grouplens.lenskit.cursors.Cursors;
 import org.grouplens.lenskit.data.dao.EventCollectionDAO;
 import org.grouplens.lenskit.data.dao.EventDAO;
-import org.grouplens.lenskit.data.dao.SimpleFileRatingDAO;
 import org.grouplens.lenskit.data.dao.SortOrder;
 import org.grouplens.lenskit.data.event.Event;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.event.Ratings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
- * Customized rating DAO for MOOC ratings.  This just wraps some standard LensKit DAOs in an
- * easy-to-configure interface.
+ * Customized rating DAO for MOOC ratings.  Ratings are read from a CSV file of
+ * {@code user,item,rating[,timestamp]} lines into memory and served through a standard
+ * {@link EventCollectionDAO}.
+ *
+ * <p>{@link #refresh()} reads only the lines appended since the last load and publishes a new
+ * immutable version: the previous versions' rating chunks are shared, and the new ratings are
+ * added as one more chunk.  A new chunk is merged with the chunks before it while they are less
+ * than twice its size, so chunk sizes halve from the oldest to the newest, there are at most
+ * logarithmically many, and each rating is copied a logarithmic number of times overall.
+ * Unsorted streams read the chunks directly; the {@link EventCollectionDAO} that sorts them is
+ * built only when a version is first asked for a sorted stream.  Registered
+ * {@link AppendListener}s receive the new ratings so downstream models can update incrementally.
+ *
+ * <p>The DAO is serializable, so it can be written with a recommender engine.  Only the file
+ * location is written; the ratings are read from it again on first use, and listeners are not
+ * carried over.
  *
  * @see org.grouplens.lenskit.data.dao.EventCollectionDAO
- * @see org.grouplens.lenskit.data.dao.SimpleFileRatingDAO
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
-public class MOOCRatingDAO implements EventDAO {
-    private final SimpleFileRatingDAO csvDao;
-    private transient volatile EventCollectionDAO cache;
+public class MOOCRatingDAO implements EventDAO, MemoryFootprint, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(MOOCRatingDAO.class);
+
+    private final AppendedLineReader ratingReader;
+    private transient List<AppendListener<Rating>> listeners =
+            new CopyOnWriteArrayList<AppendListener<Rating>>();
+    private transient volatile RatingData cache;
+
+    /**
+     * Estimated size of one cached rating: the rating object (IDs, timestamp, preference
+     * reference), its preference object, and the list slot pointing to it.
+     */
+    private static final long RATING_SIZE = MemoryEstimates.OBJECT_HEADER + 4 * 8
+            + MemoryEstimates.REFERENCE
+            + MemoryEstimates.OBJECT_HEADER + 3 * 8
+            + MemoryEstimates.REFERENCE;
 
     @Inject
     public MOOCRatingDAO(@RatingFile File file) {
-        csvDao = new SimpleFileRatingDAO(file, ",");
+        ratingReader = new AppendedLineReader(file, ",");
     }
 
     /**
@@ -35,30 +79,201 @@ public class MOOCRatingDAO implements EventDAO {
         if (cache == null) {
             synchronized (this) {
                 if (cache == null) {
-                    cache = new EventCollectionDAO(Cursors.makeList(csvDao.streamEvents()));
+                    cache = RatingData.EMPTY.extend(parseRatings(ratingReader.readAll()));
                 }
             }
         }
     }
 
+    private static List<Rating> parseRatings(List<String[]> lines) {
+        List<Rating> ratings = new ArrayList<Rating>(lines.size());
+        for (String[] line: lines) {
+            long uid = Long.parseLong(line[0]);
+            long iid = Long.parseLong(line[1]);
+            double value = Double.parseDouble(line[2]);
+            long ts = line.length > 3 ? Long.parseLong(line[3]) : -1;
+            ratings.add(Ratings.make(uid, iid, value, ts));
+        }
+        return ratings;
+    }
+
+    /**
+     * Pick up ratings appended to the rating file since the last load.  Listeners are notified
+     * with the new ratings after the new version is published.  A last line without a newline
+     * is left for a later refresh.  If the file is shorter than what was read, or the bytes just
+     * before the read offset have changed (see {@link AppendedLineReader}), all ratings are
+     * reloaded and listeners are not notified.
+     *
+     * @return The number of new ratings read.
+     */
+    public synchronized int refresh() {
+        if (cache == null) {
+            ensureRatingCache();
+            return 0;
+        }
+        List<String[]> lines = ratingReader.readAppended();
+        if (lines == null) {
+            logger.warn("rating file changed before the last read offset, reloading all ratings");
+            cache = RatingData.EMPTY.extend(parseRatings(ratingReader.readAll()));
+            return 0;
+        }
+        if (lines.isEmpty()) {
+            return 0;
+        }
+        List<Rating> delta = ImmutableList.copyOf(parseRatings(lines));
+        cache = cache.extend(delta);
+        logger.info("read {} appended ratings", delta.size());
+        for (AppendListener<Rating> listener: listeners) {
+            listener.recordsAppended(delta);
+        }
+        return delta.size();
+    }
+
+    /**
+     * Register a listener for ratings picked up by {@link #refresh()}.
+     * @param listener The listener.
+     */
+    public void addListener(AppendListener<Rating> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(AppendListener<Rating> listener) {
+        listeners.remove(listener);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // listeners belong to the writing process, and the data is reloaded on first use
+        listeners = new CopyOnWriteArrayList<AppendListener<Rating>>();
+    }
+
     @Override
     public Cursor<Event> streamEvents() {
-        // delegate to the cached event collection DAO
         ensureRatingCache();
-        return cache.streamEvents();
+        return Cursors.wrap(cache.events.iterator());
     }
 
     @Override
     public <E extends Event> Cursor<E> streamEvents(Class<E> type) {
-        // delegate to the cached event collection DAO
         ensureRatingCache();
-        return cache.streamEvents(type);
+        return Cursors.wrap(Iterables.filter(cache.events, type).iterator());
     }
 
     @Override
     public <E extends Event> Cursor<E> streamEvents(Class<E> type, SortOrder order) {
-        // delegate to the cached event collection DAO
         ensureRatingCache();
-        return cache.streamEvents(type, order);
+        if (order == SortOrder.ANY) {
+            return streamEvents(type);
+        }
+        // delegate sorting to the cached event collection DAO
+        return cache.getSortingDAO().streamEvents(type, order);
+    }
+
+    @Override
+    public long getRetainedSizeEstimate() {
+        RatingData data = cache;
+        if (data == null) {
+            return 0;
+        }
+        return MemoryEstimates.OBJECT_HEADER * 2
+                + MemoryEstimates.array(data.chunks.size(), MemoryEstimates.REFERENCE)
+                + data.chunks.size() * (MemoryEstimates.OBJECT_HEADER + MemoryEstimates.ARRAY_HEADER)
+                + data.events.size() * RATING_SIZE;
+    }
+
+    @Override
+    public long getEntryCount() {
+        RatingData data = cache;
+        return data == null ? 0 : data.events.size();
+    }
+
+    /**
+     * An immutable version of the rating data, stored as a list of chunks, oldest first.
+     */
+    private static class RatingData {
+        static final RatingData EMPTY = new RatingData(ImmutableList.<List<Rating>>of());
+
+        final List<List<Rating>> chunks;
+        final List<Event> events;
+        private volatile EventCollectionDAO dao;
+
+        RatingData(List<List<Rating>> chunks) {
+            this.chunks = chunks;
+            events = new ChunkedList(chunks);
+        }
+
+        /**
+         * Get a DAO over this version's ratings that can stream them sorted.
+         */
+        EventCollectionDAO getSortingDAO() {
+            EventCollectionDAO d = dao;
+            if (d == null) {
+                d = new EventCollectionDAO(events);
+                dao = d;
+            }
+            return d;
+        }
+
+        /**
+         * Make a new version with additional ratings.  The new ratings absorb the newest chunks
+         * while those are less than twice as large; older chunks are shared.
+         */
+        RatingData extend(List<Rating> delta) {
+            List<List<Rating>> next = new ArrayList<List<Rating>>(chunks);
+            List<Rating> chunk = delta;
+            int last = next.size() - 1;
+            while (last >= 0 && next.get(last).size() < 2 * chunk.size()) {
+                chunk = ImmutableList.<Rating>builder()
+                                     .addAll(next.remove(last))
+                                     .addAll(chunk)
+                                     .build();
+                last--;
+            }
+            next.add(ImmutableList.copyOf(chunk));
+            return new RatingData(ImmutableList.copyOf(next));
+        }
+    }
+
+    /**
+     * Read-only concatenation of rating chunks.
+     */
+    private static class ChunkedList extends AbstractList<Event> {
+        private final List<List<Rating>> chunks;
+        private final int[] starts;
+
+        ChunkedList(List<List<Rating>> chunks) {
+            this.chunks = chunks;
+            starts = new int[chunks.size() + 1];
+            for (int i = 0; i < chunks.size(); i++) {
+                starts[i + 1] = starts[i] + chunks.get(i).size();
+            }
+        }
+
+        @Override
+        public Event get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("index " + index);
+            }
+            int chunk = Arrays.binarySearch(starts, index);
+            if (chunk < 0) {
+                chunk = -chunk - 2;
+            } else {
+                // skip empty chunks that start at the same index
+                while (chunks.get(chunk).isEmpty()) {
+                    chunk++;
+                }
+            }
+            return chunks.get(chunk).get(index - starts[chunk]);
+        }
+
+        @Override
+        public Iterator<Event> iterator() {
+            return Iterables.<Event>concat(chunks).iterator();
+        }
+
+        @Override
+        public int size() {
+            return starts[starts.length - 1];
+        }
     }
 }
@@ -11,11 +11,14 @@ import org.grouplens.lenskit.util.DelimitedTextCursor;
 import javax.inject.Inject;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.Serializable;
 
 /**
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
-public class MOOCUserDAO implements UserNameDAO {
+public class MOOCUserDAO implements UserNameDAO, Serializable {
+    private static final long serialVersionUID = 1L;
+
     private final File userFile;
     private transient volatile Object2LongMap<String> nameCache;
     private transient volatile LongSet userIds;
@@ -0,0 +1,189 @@
+package edu.umn.cs.recsys.eval;
+
+import com.google.common.io.Closer;
+import org.grouplens.lenskit.util.table.TableLayout;
+import org.grouplens.lenskit.util.table.TableLayoutBuilder;
+import org.grouplens.lenskit.util.table.writer.CSVWriter;
+import org.grouplens.lenskit.util.table.writer.TableWriter;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Read per-user results written by {@link ColumnarResultWriter}, and export them to CSV with
+ * the same columns the evaluator's {@code userOutput} file had.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class ColumnarResultReader implements Closeable {
+    private final DataInputStream input;
+    private final TableLayout layout;
+    private Object[][] block;
+    private int blockRows;
+    private int nextRow;
+    private boolean finished;
+
+    private ColumnarResultReader(InputStream stream) throws IOException {
+        DataInputStream header = new DataInputStream(stream);
+        if (header.readInt() != ColumnarResultWriter.MAGIC) {
+            throw new IOException("not a columnar result file");
+        }
+        int version = header.readInt();
+        if (version != ColumnarResultWriter.VERSION) {
+            throw new IOException("unsupported result file version " + version);
+        }
+        boolean compressed = header.readBoolean();
+        int ncols = header.readInt();
+        TableLayoutBuilder bld = new TableLayoutBuilder();
+        for (int i = 0; i < ncols; i++) {
+            bld.addColumn(header.readUTF());
+        }
+        layout = bld.build();
+        if (compressed) {
+            stream = new GZIPInputStream(stream, 65536);
+        }
+        input = new DataInputStream(new BufferedInputStream(stream, 65536));
+    }
+
+    /**
+     * Open a result file.
+     * @param file The file written by {@link ColumnarResultWriter}.
+     * @return The reader.
+     * @throws IOException if the file cannot be opened or has a bad header.
+     */
+    public static ColumnarResultReader open(File file) throws IOException {
+        InputStream stream = new FileInputStream(file);
+        try {
+            return new ColumnarResultReader(stream);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    public TableLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Read the next row.
+     * @return The row's values (boxed {@link Long}, {@link Double}, or {@link String}, or
+     *         {@code null} for missing values), or {@code null} at the end of the file.
+     * @throws IOException if there is an error reading the file.
+     */
+    @Nullable
+    public Object[] nextRow() throws IOException {
+        if (nextRow == blockRows) {
+            if (finished || !readBlock()) {
+                finished = true;
+                return null;
+            }
+        }
+        return block[nextRow++];
+    }
+
+    private boolean readBlock() throws IOException {
+        int n = input.readInt();
+        if (n == 0) {
+            return false;
+        }
+        int ncols = layout.getColumnCount();
+        block = new Object[n][ncols];
+        byte[] nulls = new byte[(n + 7) / 8];
+        byte[] integral = new byte[nulls.length];
+        for (int col = 0; col < ncols; col++) {
+            byte type = input.readByte();
+            input.readFully(nulls);
+            if (type == ColumnarResultWriter.TYPE_DOUBLE) {
+                input.readFully(integral);
+            }
+            for (int i = 0; i < n; i++) {
+                if ((nulls[i >> 3] & (1 << (i & 7))) != 0) {
+                    continue;
+                }
+                switch (type) {
+                case ColumnarResultWriter.TYPE_LONG:
+                    block[i][col] = readVarLong();
+                    break;
+                case ColumnarResultWriter.TYPE_DOUBLE:
+                    if ((integral[i >> 3] & (1 << (i & 7))) != 0) {
+                        block[i][col] = readVarLong();
+                    } else {
+                        block[i][col] = input.readDouble();
+                    }
+                    break;
+                case ColumnarResultWriter.TYPE_STRING:
+                    block[i][col] = input.readUTF();
+                    break;
+                default:
+                    throw new IOException("invalid column type " + type);
+                }
+            }
+        }
+        blockRows = n;
+        nextRow = 0;
+        return true;
+    }
+
+    private long readVarLong() throws IOException {
+        long zz = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = input.readByte();
+            zz |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zz >>> 1) ^ -(zz & 1);
+    }
+
+    /**
+     * Copy the remaining rows to a table writer.
+     * @param writer The writer to receive the rows.
+     * @throws IOException if there is an error reading or writing.
+     */
+    public void copyTo(TableWriter writer) throws IOException {
+        Object[] row;
+        while ((row = nextRow()) != null) {
+            writer.writeRow(row);
+        }
+    }
+
+    /**
+     * Export a columnar result file to CSV.
+     * @param in The columnar file.
+     * @param out The CSV file to write.
+     * @throws IOException if there is an error reading or writing.
+     */
+    public static void exportCSV(File in, File out) throws IOException {
+        Closer closer = Closer.create();
+        try {
+            ColumnarResultReader reader = closer.register(open(in));
+            TableWriter writer = closer.register(CSVWriter.open(out, reader.getLayout()));
+            reader.copyTo(writer);
+        } catch (Throwable th) {
+            throw closer.rethrow(th, IOException.class);
+        } finally {
+            closer.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Export a result file from the command line.
+     * @param args The input columnar file and output CSV file.
+     * @throws IOException if there is an error reading or writing.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: ColumnarResultReader INPUT OUTPUT.csv");
+            System.exit(2);
+        }
+        exportCSV(new File(args[0]), new File(args[1]));
+    }
+}
@@ -0,0 +1,254 @@
+package edu.umn.cs.recsys.eval;
+
+import com.google.common.base.Throwables;
+import org.grouplens.lenskit.util.table.TableLayout;
+import org.grouplens.lenskit.util.table.writer.TableWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Table writer for per-user evaluation output that encodes rows into a compact columnar binary
+ * format on a background thread.  Evaluation threads only copy each row into the current block;
+ * full blocks are handed to the writer thread, which encodes and (optionally) gzips them.
+ * {@link ColumnarUserOutputMetric} routes the evaluator's per-user rows through it.
+ *
+ * <p>The file is a header (magic, version, compression flag, column names) followed by a
+ * possibly-compressed stream of blocks.  Each block holds a row count and then, for each column,
+ * a type tag, a null bitmap, and the non-null values: zig-zag varints for integral columns,
+ * doubles for floating-point columns, and UTF strings otherwise.  Floating-point columns also
+ * carry a bitmap of the values that were integers, so a column mixing the two reads back with
+ * its original types.  A zero row count ends the stream.  Use {@link ColumnarResultReader} to
+ * read the rows back or export them to CSV.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class ColumnarResultWriter implements TableWriter {
+    private static final Logger logger = LoggerFactory.getLogger(ColumnarResultWriter.class);
+
+    static final int MAGIC = 0x4c4b5552; // "LKUR"
+    static final int VERSION = 2;
+    static final byte TYPE_LONG = 1;
+    static final byte TYPE_DOUBLE = 2;
+    static final byte TYPE_STRING = 3;
+
+    private static final Object[][] END = new Object[0][];
+
+    private final TableLayout layout;
+    private final int blockSize;
+    private final BlockingQueue<Object[][]> queue;
+    private final Thread writerThread;
+    private final DataOutputStream output;
+    private volatile Throwable failure;
+
+    private Object[][] block;
+    private int blockRows;
+
+    /**
+     * Open a new columnar writer.
+     * @param file The output file.
+     * @param layout The table layout.
+     * @param compress Whether to gzip the block stream.
+     * @param blockSize The number of rows per block.
+     * @throws IOException if the file cannot be opened.
+     */
+    public ColumnarResultWriter(File file, TableLayout layout, boolean compress,
+                                int blockSize) throws IOException {
+        this.layout = layout;
+        this.blockSize = blockSize;
+        queue = new ArrayBlockingQueue<Object[][]>(4);
+
+        OutputStream stream = new FileOutputStream(file);
+        try {
+            DataOutputStream header = new DataOutputStream(stream);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeBoolean(compress);
+            header.writeInt(layout.getColumnCount());
+            for (String col: layout.getColumns()) {
+                header.writeUTF(col);
+            }
+            header.flush();
+            if (compress) {
+                stream = new GZIPOutputStream(stream, 65536);
+            }
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+        output = new DataOutputStream(new BufferedOutputStream(stream, 65536));
+
+        block = new Object[blockSize][];
+        writerThread = new Thread(new BlockEncoder(), "user-result-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Open a new columnar writer with compression and the default block size.
+     * @param file The output file.
+     * @param layout The table layout.
+     * @return The writer.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static ColumnarResultWriter open(File file, TableLayout layout) throws IOException {
+        return new ColumnarResultWriter(file, layout, true, 4096);
+    }
+
+    @Override
+    public TableLayout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public synchronized void writeRow(Object[] row) throws IOException {
+        checkFailure();
+        if (row.length > layout.getColumnCount()) {
+            throw new IllegalArgumentException("row too long");
+        }
+        // copy, since callers may reuse their row arrays
+        Object[] copy = new Object[layout.getColumnCount()];
+        System.arraycopy(row, 0, copy, 0, row.length);
+        block[blockRows++] = copy;
+        if (blockRows == blockSize) {
+            enqueue(block);
+            block = new Object[blockSize][];
+            blockRows = 0;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (blockRows > 0) {
+            Object[][] last = new Object[blockRows][];
+            System.arraycopy(block, 0, last, 0, blockRows);
+            enqueue(last);
+            blockRows = 0;
+        }
+        enqueue(END);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted closing result writer");
+        }
+        checkFailure();
+    }
+
+    private void enqueue(Object[][] rows) throws IOException {
+        try {
+            queue.put(rows);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted writing results");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable th = failure;
+        if (th != null) {
+            Throwables.propagateIfPossible(th, IOException.class);
+            throw new IOException("error writing results", th);
+        }
+    }
+
+    private void writeBlock(Object[][] rows) throws IOException {
+        int n = rows.length;
+        output.writeInt(n);
+        byte[] nulls = new byte[(n + 7) / 8];
+        byte[] integral = new byte[nulls.length];
+        for (int col = 0; col < layout.getColumnCount(); col++) {
+            byte type = TYPE_LONG;
+            Arrays.fill(nulls, (byte) 0);
+            Arrays.fill(integral, (byte) 0);
+            for (int i = 0; i < n; i++) {
+                Object v = rows[i][col];
+                if (v == null) {
+                    nulls[i >> 3] |= 1 << (i & 7);
+                } else if (v instanceof Long || v instanceof Integer
+                           || v instanceof Short || v instanceof Byte) {
+                    // integral values fit any column type
+                    integral[i >> 3] |= 1 << (i & 7);
+                } else if (v instanceof Number && type != TYPE_STRING) {
+                    type = TYPE_DOUBLE;
+                } else if (!(v instanceof Number)) {
+                    type = TYPE_STRING;
+                }
+            }
+            output.writeByte(type);
+            output.write(nulls);
+            if (type == TYPE_DOUBLE) {
+                output.write(integral);
+            }
+            for (int i = 0; i < n; i++) {
+                Object v = rows[i][col];
+                if (v == null) {
+                    continue;
+                }
+                switch (type) {
+                case TYPE_LONG:
+                    writeVarLong(((Number) v).longValue());
+                    break;
+                case TYPE_DOUBLE:
+                    if ((integral[i >> 3] & (1 << (i & 7))) != 0) {
+                        writeVarLong(((Number) v).longValue());
+                    } else {
+                        output.writeDouble(((Number) v).doubleValue());
+                    }
+                    break;
+                default:
+                    output.writeUTF(v.toString());
+                }
+            }
+        }
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        long zz = (value << 1) ^ (value >> 63);
+        while ((zz & ~0x7fL) != 0) {
+            output.writeByte((int) ((zz & 0x7f) | 0x80));
+            zz >>>= 7;
+        }
+        output.writeByte((int) zz);
+    }
+
+    private class BlockEncoder implements Runnable {
+        @Override
+        public void run() {
+            boolean done = false;
+            try {
+                Object[][] rows = queue.take();
+                while (rows != END) {
+                    writeBlock(rows);
+                    rows = queue.take();
+                }
+                done = true;
+                output.writeInt(0);
+            } catch (Throwable th) {
+                logger.error("error writing user results", th);
+                failure = th;
+            } finally {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            // keep draining after a failure so producers do not block forever
+            try {
+                while (!done) {
+                    done = queue.take() == END;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package edu.umn.cs.recsys.eval;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import org.grouplens.lenskit.eval.algorithm.AlgorithmInstance;
+import org.grouplens.lenskit.eval.data.traintest.TTDataSet;
+import org.grouplens.lenskit.eval.metrics.AbstractTestUserMetric;
+import org.grouplens.lenskit.eval.metrics.TestUserMetric;
+import org.grouplens.lenskit.eval.metrics.TestUserMetricAccumulator;
+import org.grouplens.lenskit.eval.traintest.TestUser;
+import org.grouplens.lenskit.eval.traintest.TrainTestEvalTask;
+import org.grouplens.lenskit.util.table.TableLayout;
+import org.grouplens.lenskit.util.table.TableLayoutBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Metric wrapper that sends its metrics' per-user values to a {@link ColumnarResultWriter}
+ * instead of the evaluator's CSV {@code userOutput}.  Evaluation threads only hand each row to
+ * the writer; formatting, encoding and compression happen on its background thread.  The
+ * wrapped metrics' global columns are reported as usual.
+ *
+ * <p>Each row holds the algorithm name, the requested algorithm attributes, the data set name,
+ * its partition, the user ID and the wrapped metrics' per-user columns, matching the old
+ * {@code eval-user.csv}.  Export the file with {@link ColumnarResultReader} to get that CSV.
+ * The file is closed when the evaluation finishes.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class ColumnarUserOutputMetric extends AbstractTestUserMetric {
+    private static final Logger logger = LoggerFactory.getLogger(ColumnarUserOutputMetric.class);
+
+    private final File outputFile;
+    private final List<String> attributes;
+    private final List<TestUserMetric> metrics;
+    private final List<String> columns;
+    private final TableLayout layout;
+    private ColumnarResultWriter writer;
+
+    /**
+     * Construct a new per-user output wrapper.
+     * @param file The columnar output file.
+     * @param attrs The algorithm attributes to record (e.g. {@code NNbrs}).
+     * @param wrapped The metrics whose per-user values are written.
+     */
+    public ColumnarUserOutputMetric(File file, List<String> attrs, TestUserMetric... wrapped) {
+        outputFile = file;
+        attributes = ImmutableList.copyOf(attrs);
+        metrics = ImmutableList.copyOf(wrapped);
+
+        ImmutableList.Builder<String> cols = ImmutableList.builder();
+        TableLayoutBuilder bld = new TableLayoutBuilder();
+        bld.addColumn("Algorithm");
+        for (String attr: attributes) {
+            bld.addColumn(attr);
+        }
+        bld.addColumn("DataSet");
+        bld.addColumn("Partition");
+        bld.addColumn("User");
+        for (TestUserMetric m: metrics) {
+            cols.addAll(m.getColumnLabels());
+            for (String col: m.getUserColumnLabels()) {
+                bld.addColumn(col);
+            }
+        }
+        columns = cols.build();
+        layout = bld.build();
+    }
+
+    @Override
+    public void startEvaluation(TrainTestEvalTask task) {
+        for (TestUserMetric m: metrics) {
+            m.startEvaluation(task);
+        }
+    }
+
+    @Override
+    public void finishEvaluation() {
+        for (TestUserMetric m: metrics) {
+            m.finishEvaluation();
+        }
+        synchronized (this) {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+                writer = null;
+                logger.info("wrote per-user results to {}", outputFile);
+            }
+        }
+    }
+
+    private synchronized ColumnarResultWriter getWriter() {
+        if (writer == null) {
+            try {
+                writer = ColumnarResultWriter.open(outputFile, layout);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return writer;
+    }
+
+    @Override
+    public TestUserMetricAccumulator makeAccumulator(AlgorithmInstance algorithm, TTDataSet data) {
+        List<TestUserMetricAccumulator> accums =
+                new ArrayList<TestUserMetricAccumulator>(metrics.size());
+        for (TestUserMetric m: metrics) {
+            accums.add(m.makeAccumulator(algorithm, data));
+        }
+        int nkeys = attributes.size() + 4;
+        Object[] keys = new Object[nkeys];
+        keys[0] = algorithm.getName();
+        for (int i = 0; i < attributes.size(); i++) {
+            keys[i + 1] = algorithm.getAttributes().get(attributes.get(i));
+        }
+        keys[nkeys - 3] = data.getName();
+        keys[nkeys - 2] = data.getAttributes().get("Partition");
+        return new Accumulator(accums, keys, getWriter());
+    }
+
+    @Override
+    public List<String> getColumnLabels() {
+        return columns;
+    }
+
+    @Override
+    public List<String> getUserColumnLabels() {
+        return Collections.emptyList();
+    }
+
+    private class Accumulator implements TestUserMetricAccumulator {
+        private final List<TestUserMetricAccumulator> accumulators;
+        private final Object[] keys;
+        private final ColumnarResultWriter output;
+
+        Accumulator(List<TestUserMetricAccumulator> accums, Object[] keys,
+                    ColumnarResultWriter out) {
+            accumulators = accums;
+            this.keys = keys;
+            output = out;
+        }
+
+        @Nonnull
+        @Override
+        public Object[] evaluate(TestUser testUser) {
+            Object[] row = new Object[layout.getColumnCount()];
+            System.arraycopy(keys, 0, row, 0, keys.length);
+            row[keys.length - 1] = testUser.getUserId();
+            int col = keys.length;
+            for (int i = 0; i < accumulators.size(); i++) {
+                Object[] values = accumulators.get(i).evaluate(testUser);
+                int width = metrics.get(i).getUserColumnLabels().size();
+                System.arraycopy(values, 0, row, col, Math.min(width, values.length));
+                col += width;
+            }
+            try {
+                output.writeRow(row);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            return new Object[0];
+        }
+
+        @Nonnull
+        @Override
+        public Object[] finalResults() {
+            Object[] results = new Object[columns.size()];
+            int col = 0;
+            for (int i = 0; i < accumulators.size(); i++) {
+                Object[] values = accumulators.get(i).finalResults();
+                int width = metrics.get(i).getColumnLabels().size();
+                System.arraycopy(values, 0, results, col, Math.min(width, values.length));
+                col += width;
+            }
+            return results;
+        }
+    }
+}
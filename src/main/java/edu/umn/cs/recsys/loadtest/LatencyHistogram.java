@@ -0,0 +1,92 @@
+package edu.umn.cs.recsys.loadtest;
+
+/**
+ * Log-linear latency histogram in the style of HdrHistogram.  Values below 128 are counted
+ * exactly; larger values fall in buckets 1/64 of their power of two wide, so every recorded
+ * value is reported within about 1.6%.  Recording is a shift and an array increment.
+ *
+ * <p>Histograms are not thread-safe; give each thread its own and {@linkplain #add(LatencyHistogram)
+ * merge} them afterwards.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+
+    private final long[] counts = new long[64 << (SUB_BITS - 1)];
+    private long total;
+    private long max;
+
+    /**
+     * Record a value.
+     * @param value The value (e.g. a latency in nanoseconds); negative values count as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[index(value)] += 1;
+        total += 1;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Add another histogram's counts to this one.
+     * @param other The histogram to merge in.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Get the value at a percentile.
+     * @param percentile The percentile, in (0, 100].
+     * @return The (approximate) value at or below which {@code percentile}% of values fall, or
+     *         0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(midpoint(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int index(long value) {
+        if (value < (1 << SUB_BITS)) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BITS - 1);
+        return (shift << (SUB_BITS - 1)) + (int) (value >>> shift);
+    }
+
+    static long midpoint(int index) {
+        if (index < (1 << SUB_BITS)) {
+            return index;
+        }
+        int shift = (index >>> (SUB_BITS - 1)) - 1;
+        long lower = (long) (index - (shift << (SUB_BITS - 1))) << shift;
+        return lower + ((1L << shift) >>> 1);
+    }
+}
@@ -0,0 +1,243 @@
+package edu.umn.cs.recsys.loadtest;
+
+import com.google.common.base.Throwables;
+import com.google.common.io.Closer;
+import edu.umn.cs.recsys.FootprintMetric;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.ItemRecommender;
+import org.grouplens.lenskit.ItemScorer;
+import org.grouplens.lenskit.core.LenskitRecommender;
+import org.grouplens.lenskit.core.LenskitRecommenderEngine;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.util.table.TableLayout;
+import org.grouplens.lenskit.util.table.TableLayoutBuilder;
+import org.grouplens.lenskit.util.table.writer.CSVWriter;
+import org.grouplens.lenskit.util.table.writer.TableWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replay a stream of recommendation requests against a recommender engine from several threads
+ * and measure latency and throughput.  Each thread opens its own recommender and takes requests
+ * from a shared queue; a request is a top-N recommendation for one user, or scoring every item
+ * for algorithms with no item recommender.  The leading warm-up requests are shared out among the
+ * threads and run first, unrecorded; the timed window starts once every thread has finished its
+ * warm-up, so throughput covers only the recorded requests.  After the run, the estimated
+ * footprint of the engine's components, including the rating cache of the DAO bound in the
+ * configuration, is reported with the latencies (see {@link FootprintMetric}).
+ *
+ * @see LoadTestRunner
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class LoadTest {
+    private static final Logger logger = LoggerFactory.getLogger(LoadTest.class);
+
+    private final long[] requests;
+    private final int threadCount;
+    private final int listSize;
+    private final int warmupCount;
+
+    /**
+     * Create a load test.
+     * @param users The user ID of each request, in replay order.
+     * @param nthreads The number of concurrent request threads.
+     * @param n The number of items to recommend per request.
+     * @param warmup The number of leading requests to run without recording.
+     */
+    public LoadTest(long[] users, int nthreads, int n, int warmup) {
+        requests = users;
+        threadCount = nthreads;
+        listSize = n;
+        warmupCount = Math.min(warmup, users.length);
+    }
+
+    /**
+     * Run the request stream against an engine.
+     * @param name The algorithm name to report.
+     * @param engine The engine to open recommenders from.
+     * @return The measured result.
+     */
+    public Result run(String name, LenskitRecommenderEngine engine) {
+        logger.info("load testing {} with {} requests on {} threads",
+                    name, requests.length - warmupCount, threadCount);
+        final AtomicInteger nextWarmup = new AtomicInteger();
+        final AtomicInteger next = new AtomicInteger(warmupCount);
+        ExecutorService exec = Executors.newFixedThreadPool(threadCount);
+        List<Future<LatencyHistogram>> tasks = new ArrayList<Future<LatencyHistogram>>(threadCount);
+        CountDownLatch warmedUp = new CountDownLatch(threadCount);
+        CountDownLatch measure = new CountDownLatch(1);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long elapsed;
+        try {
+            for (int i = 0; i < threadCount; i++) {
+                tasks.add(exec.submit(new Client(engine, nextWarmup, next, warmedUp, measure)));
+            }
+            // the clock starts once every thread has opened its recommender and warmed up
+            awaitClients(warmedUp, tasks);
+            long startTime = System.nanoTime();
+            measure.countDown();
+            for (Future<LatencyHistogram> task: tasks) {
+                histogram.add(task.get());
+            }
+            elapsed = System.nanoTime() - startTime;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("load test interrupted", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            exec.shutdownNow();
+        }
+        // the engine's DAO instances are shared, so their caches are filled by now
+        long[] footprint = FootprintMetric.measure(name, engine.createRecommender());
+        return new Result(name, threadCount, histogram, elapsed, footprint[0], footprint[1]);
+    }
+
+    /**
+     * Wait for the clients to reach a latch, failing as soon as any client fails instead of
+     * waiting for a count-down that will never come.
+     */
+    private static void awaitClients(CountDownLatch latch, List<Future<LatencyHistogram>> tasks)
+            throws InterruptedException, ExecutionException {
+        while (!latch.await(100, TimeUnit.MILLISECONDS)) {
+            for (Future<LatencyHistogram> task: tasks) {
+                if (task.isDone()) {
+                    task.get();
+                }
+            }
+        }
+    }
+
+    private class Client implements Callable<LatencyHistogram> {
+        private final LenskitRecommenderEngine engine;
+        private final AtomicInteger nextWarmup;
+        private final AtomicInteger next;
+        private final CountDownLatch warmedUp;
+        private final CountDownLatch measure;
+
+        Client(LenskitRecommenderEngine engine, AtomicInteger nextWarmup, AtomicInteger next,
+               CountDownLatch warmedUp, CountDownLatch measure) {
+            this.engine = engine;
+            this.nextWarmup = nextWarmup;
+            this.next = next;
+            this.warmedUp = warmedUp;
+            this.measure = measure;
+        }
+
+        @Override
+        public LatencyHistogram call() throws InterruptedException {
+            LenskitRecommender rec = engine.createRecommender();
+            ItemRecommender irec = rec.getItemRecommender();
+            ItemScorer scorer = rec.getItemScorer();
+            LongSet items = irec == null ? rec.get(ItemDAO.class).getItemIds() : null;
+            LatencyHistogram hist = new LatencyHistogram();
+            int i;
+            while ((i = nextWarmup.getAndIncrement()) < warmupCount) {
+                request(irec, scorer, items, requests[i]);
+            }
+            warmedUp.countDown();
+            measure.await();
+            while ((i = next.getAndIncrement()) < requests.length) {
+                long t0 = System.nanoTime();
+                request(irec, scorer, items, requests[i]);
+                hist.record(System.nanoTime() - t0);
+            }
+            return hist;
+        }
+
+        private void request(ItemRecommender irec, ItemScorer scorer, LongSet items, long user) {
+            if (irec != null) {
+                irec.recommend(user, listSize);
+            } else if (scorer != null) {
+                scorer.score(user, items);
+            }
+        }
+    }
+
+    /**
+     * The latency and throughput measured for one algorithm.
+     */
+    public static class Result {
+        private final String algorithm;
+        private final int threads;
+        private final LatencyHistogram histogram;
+        private final long elapsedNanos;
+        private final long footprintBytes;
+        private final long footprintEntries;
+
+        Result(String algo, int nthreads, LatencyHistogram hist, long elapsed,
+               long bytes, long entries) {
+            algorithm = algo;
+            threads = nthreads;
+            histogram = hist;
+            elapsedNanos = elapsed;
+            footprintBytes = bytes;
+            footprintEntries = entries;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        /**
+         * Get the throughput, measured after the warm-up.
+         * @return The recorded requests completed per second of wall time.
+         */
+        public double getThroughput() {
+            return elapsedNanos > 0 ? histogram.getCount() * 1.0e9 / elapsedNanos : 0;
+        }
+
+        Object[] toRow() {
+            return new Object[]{
+                    algorithm, threads, histogram.getCount(), getThroughput(),
+                    millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(95)),
+                    millis(histogram.getValueAtPercentile(99)),
+                    millis(histogram.getMax()),
+                    footprintBytes, footprintEntries
+            };
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1.0e6;
+        }
+    }
+
+    /**
+     * Write a comparison table of results as CSV.
+     * @param results The results to write.
+     * @param file The output file.
+     * @throws IOException if there is an error writing the file.
+     */
+    public static void writeTable(List<Result> results, File file) throws IOException {
+        TableLayoutBuilder bld = new TableLayoutBuilder();
+        for (String col: new String[]{"Algorithm", "Threads", "Requests", "Throughput",
+                                      "P50.ms", "P95.ms", "P99.ms", "Max.ms",
+                                      "Footprint.Bytes", "Footprint.Entries"}) {
+            bld.addColumn(col);
+        }
+        TableLayout layout = bld.build();
+        Closer closer = Closer.create();
+        try {
+            TableWriter writer = closer.register(CSVWriter.open(file, layout));
+            for (Result r: results) {
+                writer.writeRow(r.toRow());
+            }
+        } catch (Throwable th) {
+            throw closer.rethrow(th, IOException.class);
+        } finally {
+            closer.close();
+        }
+    }
+}
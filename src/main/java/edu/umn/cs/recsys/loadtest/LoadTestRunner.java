@@ -0,0 +1,239 @@
+package edu.umn.cs.recsys.loadtest;
+
+import edu.umn.cs.recsys.DiversityWeight;
+import edu.umn.cs.recsys.PopularityItemScorer;
+import edu.umn.cs.recsys.RerankPoolSize;
+import edu.umn.cs.recsys.SweepUserUserItemScorer;
+import edu.umn.cs.recsys.TagDiversityItemRecommender;
+import edu.umn.cs.recsys.TagProfileItemScorer;
+import edu.umn.cs.recsys.TagVocabulary;
+import edu.umn.cs.recsys.cbf.LuceneItemItemModel;
+import edu.umn.cs.recsys.dao.CSVItemTagDAO;
+import edu.umn.cs.recsys.dao.ItemTagDAO;
+import edu.umn.cs.recsys.dao.MOOCRatingDAO;
+import edu.umn.cs.recsys.dao.MOOCUserDAO;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.grouplens.lenskit.ItemRecommender;
+import org.grouplens.lenskit.ItemScorer;
+import org.grouplens.lenskit.RatingPredictor;
+import org.grouplens.lenskit.baseline.*;
+import org.grouplens.lenskit.core.LenskitConfiguration;
+import org.grouplens.lenskit.core.LenskitRecommenderEngine;
+import org.grouplens.lenskit.data.dao.EventDAO;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.dao.UserDAO;
+import org.grouplens.lenskit.knn.NeighborhoodSize;
+import org.grouplens.lenskit.knn.item.ItemItemScorer;
+import org.grouplens.lenskit.knn.item.ModelSize;
+import org.grouplens.lenskit.knn.item.model.ItemItemModel;
+import org.grouplens.lenskit.knn.user.UserUserItemScorer;
+import org.grouplens.lenskit.transform.normalize.BaselineSubtractingUserVectorNormalizer;
+import org.grouplens.lenskit.transform.normalize.MeanCenteringVectorNormalizer;
+import org.grouplens.lenskit.transform.normalize.UserVectorNormalizer;
+import org.grouplens.lenskit.transform.normalize.VectorNormalizer;
+import org.grouplens.lenskit.vectors.similarity.CosineVectorSimilarity;
+import org.grouplens.lenskit.vectors.similarity.PearsonCorrelation;
+import org.grouplens.lenskit.vectors.similarity.VectorSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Command-line load test of the algorithms configured in {@code eval.groovy}.  Usage:
+ *
+ * <pre>LoadTestRunner DATA_DIR OUTPUT.csv [THREADS [REQUESTS [NNBRS [REQUEST_FILE]]]]</pre>
+ *
+ * <p>Requests are drawn uniformly (with a fixed seed) from the users in {@code users.csv}, or
+ * read from {@code REQUEST_FILE}, one user ID per line.  The comparison table is written to
+ * {@code OUTPUT.csv} next to the accuracy results.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class LoadTestRunner {
+    private static final Logger logger = LoggerFactory.getLogger(LoadTestRunner.class);
+
+    private final File dataDir;
+    private final int neighborhoodSize;
+
+    public LoadTestRunner(File dir, int nnbrs) {
+        dataDir = dir;
+        neighborhoodSize = nnbrs;
+    }
+
+    /**
+     * Make the configuration common to all algorithms: the data access objects and tag roots.
+     */
+    private LenskitConfiguration baseConfig() {
+        LenskitConfiguration config = new LenskitConfiguration();
+        CSVItemTagDAO tags = new CSVItemTagDAO(new File(dataDir, "movie-titles.csv"),
+                                               new File(dataDir, "movie-tags.csv"));
+        config.bind(EventDAO.class).to(new MOOCRatingDAO(new File(dataDir, "ratings.csv")));
+        config.bind(UserDAO.class).to(new MOOCUserDAO(new File(dataDir, "users.csv")));
+        config.bind(ItemDAO.class).to(tags);
+        config.bind(ItemTagDAO.class).to(tags);
+        config.addRoot(ItemDAO.class);
+        config.addRoot(TagVocabulary.class);
+        return config;
+    }
+
+    /**
+     * Build the engines to test, mirroring the algorithms in {@code eval.groovy}.  The
+     * neighborhood-size variants are built once, at the size given on the command line.
+     * @return The engines, by algorithm name, in evaluation order.
+     */
+    public Map<String, LenskitRecommenderEngine> buildEngines() throws Exception {
+        Map<String, LenskitConfiguration> configs = new LinkedHashMap<String, LenskitConfiguration>();
+        LenskitConfiguration config;
+
+        config = baseConfig();
+        config.bind(ItemScorer.class).to(GlobalMeanRatingItemScorer.class);
+        configs.put("GlobalMean", config);
+
+        config = baseConfig();
+        config.bind(ItemScorer.class).to(PopularityItemScorer.class);
+        config.bind(RatingPredictor.class).toNull();
+        configs.put("Popular", config);
+
+        config = baseConfig();
+        config.bind(ItemScorer.class).to(ItemMeanRatingItemScorer.class);
+        configs.put("ItemMean", config);
+
+        config = baseConfig();
+        config.bind(ItemScorer.class).to(ItemMeanRatingItemScorer.class);
+        config.bind(ItemRecommender.class).to(TagDiversityItemRecommender.class);
+        config.set(DiversityWeight.class).to(0.5);
+        config.set(RerankPoolSize.class).to(100);
+        configs.put("ItemMeanDiverse", config);
+
+        config = baseConfig();
+        config.bind(ItemScorer.class).to(UserMeanItemScorer.class);
+        config.bind(UserMeanBaseline.class, ItemScorer.class).to(ItemMeanRatingItemScorer.class);
+        configs.put("PersMean", config);
+
+        config = baseConfig();
+        config.bind(ItemScorer.class).to(TagProfileItemScorer.class);
+        config.bind(RatingPredictor.class).toNull();
+        configs.put("TagProfile", config);
+
+        config = baseConfig();
+        config.bind(ItemScorer.class).to(SweepUserUserItemScorer.class);
+        config.set(NeighborhoodSize.class).to(100);
+        config.bind(VectorNormalizer.class).to(MeanCenteringVectorNormalizer.class);
+        config.bind(VectorSimilarity.class).to(PearsonCorrelation.class);
+        configs.put("UserUserSweep", config);
+
+        config = baseConfig();
+        config.bind(ItemScorer.class).to(UserUserItemScorer.class);
+        config.set(NeighborhoodSize.class).to(neighborhoodSize);
+        config.bind(VectorSimilarity.class).to(PearsonCorrelation.class);
+        configs.put("UserUser", config);
+
+        config = baseConfig();
+        config.bind(ItemScorer.class).to(UserUserItemScorer.class);
+        config.set(NeighborhoodSize.class).to(neighborhoodSize);
+        config.bind(VectorNormalizer.class).to(MeanCenteringVectorNormalizer.class);
+        config.bind(VectorSimilarity.class).to(PearsonCorrelation.class);
+        configs.put("UserUserNorm", config);
+
+        config = baseConfig();
+        config.bind(ItemScorer.class).to(UserUserItemScorer.class);
+        config.set(NeighborhoodSize.class).to(neighborhoodSize);
+        config.bind(VectorNormalizer.class).to(MeanCenteringVectorNormalizer.class);
+        config.bind(VectorSimilarity.class).to(CosineVectorSimilarity.class);
+        configs.put("UserUserCosine", config);
+
+        config = baseConfig();
+        config.bind(ItemScorer.class).to(ItemItemScorer.class);
+        config.bind(ItemItemModel.class).to(LuceneItemItemModel.class);
+        config.set(NeighborhoodSize.class).to(neighborhoodSize);
+        config.set(ModelSize.class).to(100);
+        configs.put("Lucene", config);
+
+        config = baseConfig();
+        config.bind(ItemScorer.class).to(ItemItemScorer.class);
+        config.bind(ItemItemModel.class).to(LuceneItemItemModel.class);
+        config.set(NeighborhoodSize.class).to(neighborhoodSize);
+        config.set(ModelSize.class).to(100);
+        config.bind(UserVectorNormalizer.class).to(BaselineSubtractingUserVectorNormalizer.class);
+        config.within(UserVectorNormalizer.class)
+              .bind(BaselineScorer.class, ItemScorer.class)
+              .to(ItemMeanRatingItemScorer.class);
+        configs.put("LuceneNorm", config);
+
+        Map<String, LenskitRecommenderEngine> engines = new LinkedHashMap<String, LenskitRecommenderEngine>();
+        for (Map.Entry<String, LenskitConfiguration> e: configs.entrySet()) {
+            logger.info("building {}", e.getKey());
+            engines.put(e.getKey(), LenskitRecommenderEngine.build(e.getValue()));
+        }
+        return engines;
+    }
+
+    /**
+     * Make a synthetic request stream by drawing users uniformly with a fixed seed.
+     */
+    private long[] syntheticRequests(int count) {
+        long[] users = new MOOCUserDAO(new File(dataDir, "users.csv")).getUserIds().toLongArray();
+        Arrays.sort(users);
+        Random rng = new Random(42);
+        long[] requests = new long[count];
+        for (int i = 0; i < count; i++) {
+            requests[i] = users[rng.nextInt(users.length)];
+        }
+        return requests;
+    }
+
+    /**
+     * Read a recorded request stream, one user ID per line.
+     */
+    private static long[] recordedRequests(File file) throws IOException {
+        LongArrayList users = new LongArrayList();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    users.add(Long.parseLong(line));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return users.toLongArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: LoadTestRunner DATA_DIR OUTPUT.csv [THREADS [REQUESTS [NNBRS [REQUEST_FILE]]]]");
+            System.exit(2);
+        }
+        File dataDir = new File(args[0]);
+        File output = new File(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2])
+                                       : Runtime.getRuntime().availableProcessors();
+        int count = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+        int nnbrs = args.length > 4 ? Integer.parseInt(args[4]) : 30;
+
+        LoadTestRunner runner = new LoadTestRunner(dataDir, nnbrs);
+        long[] requests = args.length > 5 ? recordedRequests(new File(args[5]))
+                                          : runner.syntheticRequests(count);
+        LoadTest test = new LoadTest(requests, threads, 10, Math.min(1000, requests.length / 10));
+
+        List<LoadTest.Result> results = new ArrayList<LoadTest.Result>();
+        for (Map.Entry<String, LenskitRecommenderEngine> e: runner.buildEngines().entrySet()) {
+            LoadTest.Result result = test.run(e.getKey(), e.getValue());
+            logger.info("{}: {} req/s, p50 {} ns, p99 {} ns, max {} ns",
+                        e.getKey(), String.format("%.1f", result.getThroughput()),
+                        result.getHistogram().getValueAtPercentile(50),
+                        result.getHistogram().getValueAtPercentile(99),
+                        result.getHistogram().getMax());
+            results.add(result);
+        }
+        LoadTest.writeTable(results, output);
+    }
+}
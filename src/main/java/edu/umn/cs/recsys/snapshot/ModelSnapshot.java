@@ -0,0 +1,139 @@
+package edu.umn.cs.recsys.snapshot;
+
+import com.google.common.io.Closer;
+import org.grouplens.lenskit.core.LenskitRecommenderEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Versioned on-disk snapshots of a built recommender engine.  The engine writes its
+ * configuration graph with the pre-built shareable components ({@link
+ * edu.umn.cs.recsys.TagVocabulary}, the Lucene model, scorer vectors, etc.); a snapshot wraps
+ * that in a header recording a format version and the time it was written, and gzips the body.
+ *
+ * <p>{@link #load(File)} takes no configuration: recommenders opened from a loaded engine use
+ * the bindings that were written, and nothing needs to be supplied afterwards.  Components that
+ * are bound to instances, such as the DAOs, are written with the engine, so they must be
+ * serializable.  The file DAOs in {@code edu.umn.cs.recsys.dao} write only their file locations
+ * and read the files again on first use, so those paths must be readable wherever the snapshot
+ * is loaded.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public final class ModelSnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(ModelSnapshot.class);
+
+    static final int MAGIC = 0x4c4b534e; // "LKSN"
+    static final int VERSION = 1;
+
+    private final LenskitRecommenderEngine engine;
+    private final long timestamp;
+
+    private ModelSnapshot(LenskitRecommenderEngine engine, long timestamp) {
+        this.engine = engine;
+        this.timestamp = timestamp;
+    }
+
+    public LenskitRecommenderEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Get the time the snapshot was written.
+     * @return The write time, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Write an engine to a snapshot file.  The snapshot is written to a temporary file next to
+     * it, synced to disk, and then renamed over the old snapshot, so a reader opening the file
+     * sees either the old snapshot or the complete new one.  The temporary file is deleted if
+     * writing fails.  Where a rename cannot replace an existing file, the old snapshot is
+     * deleted first, and for that moment there is no snapshot at all.
+     *
+     * @param engine The engine to write.
+     * @param file The snapshot file.
+     * @throws IOException if there is an error writing the snapshot.
+     */
+    public static void write(LenskitRecommenderEngine engine, File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        boolean moved = false;
+        try {
+            Closer closer = Closer.create();
+            try {
+                FileOutputStream stream = closer.register(new FileOutputStream(tmp));
+                DataOutputStream header = new DataOutputStream(stream);
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeLong(System.currentTimeMillis());
+                header.flush();
+                GZIPOutputStream body = closer.register(new GZIPOutputStream(
+                        new BufferedOutputStream(stream, 65536)));
+                engine.write(body);
+                body.finish();
+                body.flush();
+                // the data must be on disk before the rename can expose it
+                stream.getFD().sync();
+            } catch (Throwable th) {
+                throw closer.rethrow(th, IOException.class);
+            } finally {
+                closer.close();
+            }
+            if (!tmp.renameTo(file)) {
+                // rename does not replace existing files on every platform
+                if (!file.delete() || !tmp.renameTo(file)) {
+                    throw new IOException("cannot move snapshot into place at " + file);
+                }
+            }
+            moved = true;
+        } finally {
+            if (!moved && tmp.exists() && !tmp.delete()) {
+                logger.warn("cannot delete temporary snapshot {}", tmp);
+            }
+        }
+    }
+
+    /**
+     * Load a snapshot.
+     * @param file The snapshot file.
+     * @return The loaded snapshot.
+     * @throws IOException if the file cannot be read, is not a snapshot, or has an unsupported
+     *                     version.
+     */
+    public static ModelSnapshot load(File file) throws IOException {
+        Closer closer = Closer.create();
+        try {
+            InputStream stream = closer.register(new FileInputStream(file));
+            DataInputStream header = new DataInputStream(stream);
+            if (header.readInt() != MAGIC) {
+                throw new IOException(file + " is not a model snapshot");
+            }
+            int version = header.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported snapshot version " + version);
+            }
+            long timestamp = header.readLong();
+            InputStream body = closer.register(new GZIPInputStream(
+                    new BufferedInputStream(stream, 65536)));
+            LenskitRecommenderEngine engine;
+            try {
+                engine = LenskitRecommenderEngine.load(body);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("cannot load engine from " + file, e);
+            }
+            return new ModelSnapshot(engine, timestamp);
+        } catch (Throwable th) {
+            throw closer.rethrow(th, IOException.class);
+        } finally {
+            closer.close();
+        }
+    }
+}
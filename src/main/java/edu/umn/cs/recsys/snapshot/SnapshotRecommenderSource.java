@@ -0,0 +1,72 @@
+package edu.umn.cs.recsys.snapshot;
+
+import org.grouplens.lenskit.core.LenskitRecommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Source of recommenders for a running service, backed by a swappable {@link ModelSnapshot}.
+ * Each request should open its own recommender with {@link #open()}; a swap only changes which
+ * snapshot later calls open from, so in-flight requests finish on the snapshot they started
+ * with and no request waits for a model to load.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class SnapshotRecommenderSource {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotRecommenderSource.class);
+
+    private final AtomicReference<ModelSnapshot> current;
+
+    /**
+     * Create a source serving an initial snapshot.
+     * @param initial The snapshot to serve.
+     */
+    public SnapshotRecommenderSource(ModelSnapshot initial) {
+        current = new AtomicReference<ModelSnapshot>(initial);
+    }
+
+    /**
+     * Create a source by loading a snapshot file.
+     * @param file The snapshot file.
+     * @return The recommender source.
+     * @throws IOException if the snapshot cannot be loaded.
+     */
+    public static SnapshotRecommenderSource load(File file) throws IOException {
+        return new SnapshotRecommenderSource(ModelSnapshot.load(file));
+    }
+
+    /**
+     * Open a recommender from the current snapshot.
+     * @return A new recommender.
+     */
+    public LenskitRecommender open() {
+        return current.get().getEngine().createRecommender();
+    }
+
+    /**
+     * Get the snapshot currently being served.
+     * @return The current snapshot.
+     */
+    public ModelSnapshot getSnapshot() {
+        return current.get();
+    }
+
+    /**
+     * Load a new snapshot and atomically start serving it.  The load happens on the calling
+     * thread; requests keep using the old snapshot until it completes.
+     *
+     * @param file The snapshot file.
+     * @return The snapshot that was replaced.
+     * @throws IOException if the snapshot cannot be loaded; the current snapshot stays in place.
+     */
+    public ModelSnapshot swap(File file) throws IOException {
+        ModelSnapshot next = ModelSnapshot.load(file);
+        ModelSnapshot old = current.getAndSet(next);
+        logger.info("swapped to snapshot {} written at {}", file, next.getTimestamp());
+        return old;
+    }
+}
@@ -0,0 +1,151 @@
+package edu.umn.cs.recsys;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.grouplens.lenskit.ItemScorer;
+import org.grouplens.lenskit.core.LenskitConfiguration;
+import org.grouplens.lenskit.core.LenskitRecommenderEngine;
+import org.grouplens.lenskit.data.dao.EventCollectionDAO;
+import org.grouplens.lenskit.data.dao.EventDAO;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.event.Ratings;
+import org.grouplens.lenskit.knn.NeighborhoodSize;
+import org.grouplens.lenskit.knn.user.UserUserItemScorer;
+import org.grouplens.lenskit.transform.normalize.IdentityVectorNormalizer;
+import org.grouplens.lenskit.transform.normalize.MeanCenteringVectorNormalizer;
+import org.grouplens.lenskit.transform.normalize.VectorNormalizer;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.grouplens.lenskit.vectors.similarity.CosineVectorSimilarity;
+import org.grouplens.lenskit.vectors.similarity.PearsonCorrelation;
+import org.grouplens.lenskit.vectors.similarity.VectorSimilarity;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks that {@link SweepUserUserItemScorer} scores like LensKit's {@link UserUserItemScorer}
+ * at every neighborhood size, for each normalizer and similarity the evaluation uses.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class SweepUserUserItemScorerTest {
+    private static final int USER_COUNT = 15;
+    private static final int ITEM_COUNT = 12;
+    private static final double EPSILON = 1.0e-6;
+
+    private EventDAO dao;
+    private LongList items;
+
+    @Before
+    public void createFixture() {
+        // ratings drawn from a continuous range, so no two neighbors tie on similarity
+        Random rng = new Random(42);
+        List<Rating> ratings = new ArrayList<Rating>();
+        for (long u = 1; u <= USER_COUNT; u++) {
+            for (long i = 101; i <= 100 + ITEM_COUNT; i++) {
+                if (rng.nextDouble() < 0.75) {
+                    ratings.add(Ratings.make(u, i, 0.5 + 4.5 * rng.nextDouble(), -1));
+                }
+            }
+        }
+        dao = new EventCollectionDAO(ratings);
+        items = new LongArrayList();
+        for (long i = 101; i <= 100 + ITEM_COUNT; i++) {
+            items.add(i);
+        }
+    }
+
+    private ItemScorer buildScorer(Class<? extends ItemScorer> scorer, int nnbrs,
+                                   Class<? extends VectorNormalizer> norm,
+                                   Class<? extends VectorSimilarity> sim) throws Exception {
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(EventDAO.class).to(dao);
+        config.bind(ItemScorer.class).to(scorer);
+        config.set(NeighborhoodSize.class).to(nnbrs);
+        config.bind(VectorNormalizer.class).to(norm);
+        config.bind(VectorSimilarity.class).to(sim);
+        return LenskitRecommenderEngine.build(config).createRecommender().getItemScorer();
+    }
+
+    private void checkSweep(Class<? extends VectorNormalizer> norm,
+                            Class<? extends VectorSimilarity> sim) throws Exception {
+        // every size from 1 to more neighbors than any item has
+        int[] sizes = new int[USER_COUNT];
+        for (int k = 0; k < sizes.length; k++) {
+            sizes[k] = k + 1;
+        }
+        SweepUserUserItemScorer sweep =
+                (SweepUserUserItemScorer) buildScorer(SweepUserUserItemScorer.class,
+                                                      USER_COUNT, norm, sim);
+        for (int k = 0; k < sizes.length; k++) {
+            ItemScorer expected = buildScorer(UserUserItemScorer.class, sizes[k], norm, sim);
+            for (long u = 1; u <= USER_COUNT; u++) {
+                SparseVector scores = sweep.scoreSweep(u, MutableSparseVector.create(items),
+                                                       sizes)[k];
+                SparseVector lenskit = expected.score(u, items);
+                assertThat(String.format("user %d at %d neighbors", u, sizes[k]),
+                           scores.keySet(), equalTo(lenskit.keySet()));
+                for (long i: items) {
+                    if (lenskit.containsKey(i)) {
+                        assertThat(String.format("user %d, item %d at %d neighbors",
+                                                 u, i, sizes[k]),
+                                   scores.get(i), closeTo(lenskit.get(i), EPSILON));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPearson() throws Exception {
+        checkSweep(IdentityVectorNormalizer.class, PearsonCorrelation.class);
+    }
+
+    @Test
+    public void testMeanCenteredPearson() throws Exception {
+        checkSweep(MeanCenteringVectorNormalizer.class, PearsonCorrelation.class);
+    }
+
+    @Test
+    public void testMeanCenteredCosine() throws Exception {
+        checkSweep(MeanCenteringVectorNormalizer.class, CosineVectorSimilarity.class);
+    }
+
+    @Test
+    public void testScoreMatchesLargestSweepSize() throws Exception {
+        SweepUserUserItemScorer sweep =
+                (SweepUserUserItemScorer) buildScorer(SweepUserUserItemScorer.class, 5,
+                                                      MeanCenteringVectorNormalizer.class,
+                                                      PearsonCorrelation.class);
+        for (long u = 1; u <= USER_COUNT; u++) {
+            SparseVector scores = sweep.score(u, items);
+            SparseVector[] swept = sweep.scoreSweep(u, MutableSparseVector.create(items),
+                                                    new int[]{2, 5});
+            assertThat(swept[1].keySet(), equalTo(scores.keySet()));
+            for (long i: scores.keySet()) {
+                assertThat(swept[1].get(i), closeTo(scores.get(i), EPSILON));
+            }
+        }
+    }
+
+    @Test
+    public void testTopIndices() {
+        double[] sims = {0.1, -0.8, 0.9, 0.3, -0.2, 0.7, 0.0};
+        assertThat(SweepUserUserItemScorer.topIndices(sims, sims.length, 3),
+                   equalTo(new int[]{2, 5, 3}));
+        assertThat(SweepUserUserItemScorer.topIndices(sims, sims.length, 10),
+                   equalTo(new int[]{2, 5, 3, 0, 6, 4, 1}));
+        // only the first count entries are candidates
+        assertThat(SweepUserUserItemScorer.topIndices(sims, 2, 5),
+                   equalTo(new int[]{0, 1}));
+        assertThat(SweepUserUserItemScorer.topIndices(sims, 0, 5).length,
+                   equalTo(0));
+    }
+}
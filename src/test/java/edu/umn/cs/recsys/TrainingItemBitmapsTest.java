@@ -0,0 +1,163 @@
+package edu.umn.cs.recsys;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.data.dao.EventCollectionDAO;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.event.Ratings;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the candidate sets of {@link TrainingItemBitmaps}, around 64-bit word boundaries
+ * and the final partial word.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class TrainingItemBitmapsTest {
+    /**
+     * 150 items fill two full words and 22 bits of a third.
+     */
+    private static final int ITEM_COUNT = 150;
+    private static final long FIRST_ITEM = 1000;
+
+    private TrainingItemBitmaps bitmaps;
+
+    private static long item(int index) {
+        return FIRST_ITEM + index;
+    }
+
+    @Before
+    public void buildBitmaps() {
+        List<Rating> ratings = new ArrayList<Rating>();
+        // user 1 rated the items on each side of every word boundary, and the last item
+        for (int i: new int[]{0, 63, 64, 65, 127, 128, ITEM_COUNT - 1}) {
+            ratings.add(Ratings.make(1, item(i), 3.0, -1));
+        }
+        // user 2 rated the whole middle word
+        for (int i = 64; i < 128; i++) {
+            ratings.add(Ratings.make(2, item(i), 4.0, -1));
+        }
+        // user 3 rated every item in the final partial word
+        for (int i = 128; i < ITEM_COUNT; i++) {
+            ratings.add(Ratings.make(3, item(i), 2.0, -1));
+        }
+        // ratings for items outside the item universe are ignored
+        ratings.add(Ratings.make(1, 5, 1.0, -1));
+
+        final LongSet items = new LongOpenHashSet();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items.add(item(i));
+        }
+        ItemDAO idao = new ItemDAO() {
+            @Override
+            public LongSet getItemIds() {
+                return items;
+            }
+        };
+        bitmaps = new TrainingItemBitmaps.Builder(new EventCollectionDAO(ratings), idao).get();
+    }
+
+    /**
+     * Compute the expected candidates for a user by checking every item.
+     */
+    private LongList expected(long user) {
+        LongList result = new LongArrayList();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            if (!bitmaps.isTrainingItem(user, i)) {
+                result.add(item(i));
+            }
+        }
+        return result;
+    }
+
+    private static LongList iterate(LongSet set) {
+        LongList result = new LongArrayList();
+        LongIterator iter = set.iterator();
+        while (iter.hasNext()) {
+            result.add(iter.nextLong());
+        }
+        return result;
+    }
+
+    @Test
+    public void testItemIndex() {
+        assertThat(bitmaps.getItemCount(), equalTo(ITEM_COUNT));
+        assertThat(bitmaps.getItemId(0), equalTo(FIRST_ITEM));
+        assertThat(bitmaps.getItemId(ITEM_COUNT - 1), equalTo(item(ITEM_COUNT - 1)));
+    }
+
+    @Test
+    public void testWordBoundaries() {
+        LongSet cands = bitmaps.getUntrainedItems(1);
+        assertThat(cands.size(), equalTo(ITEM_COUNT - 7));
+        for (int i: new int[]{0, 63, 64, 65, 127, 128, ITEM_COUNT - 1}) {
+            assertThat(cands.contains(item(i)), equalTo(false));
+        }
+        for (int i: new int[]{1, 62, 66, 126, 129, ITEM_COUNT - 2}) {
+            assertThat(cands.contains(item(i)), equalTo(true));
+        }
+        assertThat(iterate(cands), equalTo(expected(1)));
+    }
+
+    @Test
+    public void testFullWordSkipped() {
+        LongSet cands = bitmaps.getUntrainedItems(2);
+        assertThat(cands.size(), equalTo(ITEM_COUNT - 64));
+        assertThat(cands.contains(item(63)), equalTo(true));
+        assertThat(cands.contains(item(64)), equalTo(false));
+        assertThat(cands.contains(item(127)), equalTo(false));
+        assertThat(cands.contains(item(128)), equalTo(true));
+        assertThat(iterate(cands), equalTo(expected(2)));
+    }
+
+    @Test
+    public void testFinalPartialWord() {
+        LongSet cands = bitmaps.getUntrainedItems(3);
+        assertThat(cands.size(), equalTo(128));
+        LongList iterated = iterate(cands);
+        assertThat(iterated, hasSize(128));
+        assertThat(iterated.getLong(127), equalTo(item(127)));
+        // bits past the last item must not produce candidates
+        assertThat(cands.contains(item(ITEM_COUNT)), equalTo(false));
+        assertThat(iterated, equalTo(expected(3)));
+    }
+
+    @Test
+    public void testUnknownUser() {
+        LongSet cands = bitmaps.getUntrainedItems(99);
+        assertThat(cands.size(), equalTo(ITEM_COUNT));
+        assertThat(iterate(cands), equalTo(expected(99)));
+        assertThat(cands.contains(item(ITEM_COUNT - 1)), equalTo(true));
+        assertThat(cands.contains(5L), equalTo(false));
+    }
+
+    @Test
+    public void testPopularityStrata() {
+        // one item per stratum exposes the popularity order: the items rated twice, then the
+        // items rated once, then the unrated items, each by index
+        Random rng = new Random(42);
+        int[] order = {64, 65, 127, 128, ITEM_COUNT - 1, 0, 63, 66};
+        for (int s = 0; s < order.length; s++) {
+            assertThat(bitmaps.sampleIndex(rng, s, ITEM_COUNT), equalTo(order[s]));
+        }
+        assertThat(bitmaps.sampleIndex(rng, ITEM_COUNT - 1, ITEM_COUNT), equalTo(62));
+
+        // the least popular third of 150 items is unrated items 13-62
+        for (int n = 0; n < 200; n++) {
+            int idx = bitmaps.sampleIndex(rng, 2, 3);
+            assertThat(idx, allOf(greaterThanOrEqualTo(13), lessThanOrEqualTo(62)));
+        }
+    }
+}
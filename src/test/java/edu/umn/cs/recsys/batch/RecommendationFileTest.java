@@ -0,0 +1,117 @@
+package edu.umn.cs.recsys.batch;
+
+import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.scored.ScoredIdListBuilder;
+import org.grouplens.lenskit.scored.ScoredIds;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Round-trip tests for {@link RecommendationFileWriter} and {@link RecommendationFile}.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class RecommendationFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RecommendationFile file;
+
+    private static List<ScoredId> list(long[] items, double[] scores) {
+        ScoredIdListBuilder builder = ScoredIds.newListBuilder();
+        for (int i = 0; i < items.length; i++) {
+            builder.add(items[i], scores[i]);
+        }
+        return builder.build();
+    }
+
+    @Before
+    public void writeFile() throws IOException {
+        File output = folder.newFile("recs.bin");
+        RecommendationFileWriter writer = new RecommendationFileWriter(output, 4);
+        // items in score order, so consecutive deltas go both up and down
+        writer.put(42, RecommendationFileWriter.encode(
+                list(new long[]{100, 5, 10000000000L, 42},
+                     new double[]{4.5, 4.0, 3.25, -1.5})));
+        writer.put(7, RecommendationFileWriter.encode(
+                list(new long[]{3}, new double[]{2.0})));
+        writer.put(-3, RecommendationFileWriter.encode(
+                list(new long[0], new double[0])));
+        writer.close();
+        file = RecommendationFile.open(output);
+    }
+
+    @Test
+    public void testHeader() {
+        assertThat(file.getListSize(), equalTo(4));
+        assertThat(file.getUserCount(), equalTo(3));
+        assertThat(file.getUserIds(), containsInAnyOrder(42L, 7L, -3L));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        List<ScoredId> recs = file.getRecommendations(42);
+        assertThat(recs, hasSize(4));
+        long[] items = {100, 5, 10000000000L, 42};
+        double[] scores = {4.5, 4.0, 3.25, -1.5};
+        for (int i = 0; i < items.length; i++) {
+            assertThat(recs.get(i).getId(), equalTo(items[i]));
+            assertThat(recs.get(i).getScore(), closeTo(scores[i], 1.0e-6));
+        }
+
+        recs = file.getRecommendations(7);
+        assertThat(recs, hasSize(1));
+        assertThat(recs.get(0).getId(), equalTo(3L));
+    }
+
+    @Test
+    public void testEmptyList() {
+        assertThat(file.hasUser(-3), equalTo(true));
+        assertThat(file.read(-3, new long[4], new double[4]), equalTo(0));
+        assertThat(file.getRecommendations(-3), hasSize(0));
+    }
+
+    @Test
+    public void testMissingUser() {
+        assertThat(file.hasUser(8), equalTo(false));
+        assertThat(file.read(8, new long[4], new double[4]), equalTo(-1));
+        assertThat(file.getRecommendations(8), hasSize(0));
+    }
+
+    @Test
+    public void testReadWithoutScores() {
+        long[] items = new long[4];
+        assertThat(file.read(42, items, null), equalTo(4));
+        assertThat(items[2], equalTo(10000000000L));
+    }
+
+    @Test
+    public void testReadTruncatesToArray() {
+        long[] items = new long[2];
+        double[] scores = new double[2];
+        assertThat(file.read(42, items, scores), equalTo(2));
+        assertThat(items[0], equalTo(100L));
+        assertThat(items[1], equalTo(5L));
+        // scores come from after all the item deltas, not the third delta
+        assertThat(scores[0], closeTo(4.5, 1.0e-6));
+        assertThat(scores[1], closeTo(4.0, 1.0e-6));
+    }
+
+    @Test
+    public void testCopyBlock() {
+        byte[] block = file.copyBlock(42);
+        assertThat(block, equalTo(RecommendationFileWriter.encode(
+                list(new long[]{100, 5, 10000000000L, 42},
+                     new double[]{4.5, 4.0, 3.25, -1.5}))));
+        assertThat(file.copyBlock(8), nullValue());
+    }
+}
@@ -0,0 +1,171 @@
+package edu.umn.cs.recsys.dao;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link AppendedLineReader}: unterminated lines, line endings, and detecting files
+ * that were truncated or rewritten rather than appended to.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class AppendedLineReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private AppendedLineReader reader;
+
+    @Before
+    public void createReader() throws IOException {
+        file = folder.newFile("lines.csv");
+        reader = new AppendedLineReader(file, ",");
+    }
+
+    private void write(String text) throws IOException {
+        Files.write(text, file, Charsets.UTF_8);
+    }
+
+    private void append(String text) throws IOException {
+        Files.append(text, file, Charsets.UTF_8);
+    }
+
+    /**
+     * Rejoin the split fields, so lines can be compared as strings.
+     */
+    private static List<String> join(List<String[]> lines) {
+        if (lines == null) {
+            return null;
+        }
+        List<String> joined = new ArrayList<String>(lines.size());
+        for (String[] line: lines) {
+            joined.add(Joiner.on('|').join(line));
+        }
+        return joined;
+    }
+
+    @Test
+    public void testReadAll() throws IOException {
+        write("1,a\n2,b\n\n3,c\n");
+        assertThat(join(reader.readAll()), contains("1|a", "2|b", "3|c"));
+        // reading everything again starts over
+        assertThat(join(reader.readAll()), contains("1|a", "2|b", "3|c"));
+    }
+
+    @Test
+    public void testAppended() throws IOException {
+        write("1,a\n");
+        reader.readAll();
+        append("2,b\n3,c\n");
+        assertThat(join(reader.readAppended()), contains("2|b", "3|c"));
+        append("4,d\n");
+        assertThat(join(reader.readAppended()), contains("4|d"));
+    }
+
+    @Test
+    public void testNoNewData() throws IOException {
+        write("1,a\n2,b\n");
+        reader.readAll();
+        assertThat(reader.readAppended(), hasSize(0));
+        // a second refresh with nothing new is still empty, not a rewrite
+        assertThat(reader.readAppended(), hasSize(0));
+        append("3,c\n");
+        assertThat(join(reader.readAppended()), contains("3|c"));
+        assertThat(reader.readAppended(), hasSize(0));
+        assertThat(reader.readAppended(), hasSize(0));
+    }
+
+    @Test
+    public void testUnterminatedLastLine() throws IOException {
+        write("1,a\n2,b");
+        assertThat(join(reader.readAll()), contains("1|a", "2|b"));
+        assertThat(reader.readAppended(), hasSize(0));
+        // ending the line read by readAll does not return it again
+        append("\n3,c\n");
+        assertThat(join(reader.readAppended()), contains("3|c"));
+    }
+
+    @Test
+    public void testAppendedUnterminatedLine() throws IOException {
+        write("1,a\n");
+        reader.readAll();
+        append("2,b\n3,");
+        // the writer may still be in the middle of the last line
+        assertThat(join(reader.readAppended()), contains("2|b"));
+        append("c\n");
+        assertThat(join(reader.readAppended()), contains("3|c"));
+    }
+
+    @Test
+    public void testExtendedLastLine() throws IOException {
+        write("1,a\n2,b");
+        reader.readAll();
+        // the line readAll returned has changed, so everything must be read again
+        append("c\n");
+        assertThat(reader.readAppended(), nullValue());
+        assertThat(join(reader.readAll()), contains("1|a", "2|bc"));
+    }
+
+    @Test
+    public void testCRLF() throws IOException {
+        write("1,a\r\n2,b\r\n");
+        assertThat(join(reader.readAll()), contains("1|a", "2|b"));
+        append("3,c\r\n4,d\r\n");
+        assertThat(join(reader.readAppended()), contains("3|c", "4|d"));
+        assertThat(reader.readAppended(), hasSize(0));
+    }
+
+    @Test
+    public void testCRLFAfterUnterminatedLine() throws IOException {
+        write("1,a\r\n2,b");
+        assertThat(join(reader.readAll()), contains("1|a", "2|b"));
+        append("\r\n3,c\r\n");
+        assertThat(join(reader.readAppended()), contains("3|c"));
+    }
+
+    @Test
+    public void testShrink() throws IOException {
+        write("1,a\n2,b\n3,c\n");
+        reader.readAll();
+        write("1,a\n");
+        assertThat(reader.readAppended(), nullValue());
+        assertThat(join(reader.readAll()), contains("1|a"));
+        assertThat(reader.readAppended(), hasSize(0));
+    }
+
+    @Test
+    public void testRewriteWithinSignature() throws IOException {
+        write("1,a\n2,b\n");
+        reader.readAll();
+        // same length before the old offset, but different bytes, and a new line after it
+        write("1,a\n2,x\n3,c\n");
+        assertThat(reader.readAppended(), nullValue());
+        assertThat(join(reader.readAll()), contains("1|a", "2|x", "3|c"));
+    }
+
+    @Test
+    public void testRewriteBeforeSignature() throws IOException {
+        // a change further back than the signature is not noticed
+        StringBuilder text = new StringBuilder("0,z\n");
+        while (text.length() < AppendedLineReader.SIGNATURE_SIZE + 16) {
+            text.append("1,a\n");
+        }
+        write(text.toString());
+        reader.readAll();
+        write("0,y\n" + text.substring(4) + "2,b\n");
+        assertThat(join(reader.readAppended()), contains("2|b"));
+    }
+}
@@ -0,0 +1,107 @@
+package edu.umn.cs.recsys.eval;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.grouplens.lenskit.util.table.TableLayout;
+import org.grouplens.lenskit.util.table.TableLayoutBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Round-trip tests for {@link ColumnarResultWriter}, {@link ColumnarResultReader} and the CSV
+ * export.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class ColumnarResultWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TableLayout layout;
+
+    @Before
+    public void createLayout() {
+        TableLayoutBuilder bld = new TableLayoutBuilder();
+        bld.addColumn("Algorithm");
+        bld.addColumn("User");
+        bld.addColumn("Score");
+        layout = bld.build();
+    }
+
+    /**
+     * Write rows in blocks of two: the first block mixes an integer and a double in the score
+     * column, the second has a missing score.
+     */
+    private File writeRows(boolean compress) throws IOException {
+        File file = folder.newFile();
+        ColumnarResultWriter writer = new ColumnarResultWriter(file, layout, compress, 2);
+        writer.writeRow(new Object[]{"UserUser", 1L, 3.5});
+        writer.writeRow(new Object[]{"UserUser", 2, 4});
+        writer.writeRow(new Object[]{"ItemMean", -3L, null});
+        writer.close();
+        return file;
+    }
+
+    private void checkRows(File file) throws IOException {
+        ColumnarResultReader reader = ColumnarResultReader.open(file);
+        try {
+            assertThat(reader.getLayout().getColumns(),
+                       contains("Algorithm", "User", "Score"));
+            Object[] row = reader.nextRow();
+            assertThat(row, arrayContaining((Object) "UserUser", 1L, 3.5));
+            row = reader.nextRow();
+            // integers come back as longs, even in a floating-point column
+            assertThat(row, arrayContaining((Object) "UserUser", 2L, 4L));
+            row = reader.nextRow();
+            assertThat(row[0], equalTo((Object) "ItemMean"));
+            assertThat(row[1], equalTo((Object) (-3L)));
+            assertThat(row[2], nullValue());
+            assertThat(reader.nextRow(), nullValue());
+            assertThat(reader.nextRow(), nullValue());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        checkRows(writeRows(false));
+    }
+
+    @Test
+    public void testCompressedRoundTrip() throws IOException {
+        checkRows(writeRows(true));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        File file = folder.newFile();
+        ColumnarResultWriter.open(file, layout).close();
+        ColumnarResultReader reader = ColumnarResultReader.open(file);
+        try {
+            assertThat(reader.nextRow(), nullValue());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testExportCSV() throws IOException {
+        File csv = folder.newFile("users.csv");
+        ColumnarResultReader.exportCSV(writeRows(true), csv);
+        List<String> lines = Files.readLines(csv, Charsets.UTF_8);
+        assertThat(lines, contains("Algorithm,User,Score",
+                                   "UserUser,1,3.5",
+                                   "UserUser,2,4",
+                                   "ItemMean,-3,"));
+    }
+}
@@ -0,0 +1,101 @@
+package edu.umn.cs.recsys.loadtest;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link LatencyHistogram} bucketing and percentiles.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void testExactBuckets() {
+        for (long v = 0; v < 128; v++) {
+            assertThat(LatencyHistogram.index(v), equalTo((int) v));
+            assertThat(LatencyHistogram.midpoint((int) v), equalTo(v));
+        }
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        // 128-255 are counted in buckets 2 wide
+        assertThat(LatencyHistogram.index(128), equalTo(128));
+        assertThat(LatencyHistogram.index(129), equalTo(128));
+        assertThat(LatencyHistogram.index(130), equalTo(129));
+        assertThat(LatencyHistogram.index(255), equalTo(191));
+        // 256-511 in buckets 4 wide
+        assertThat(LatencyHistogram.index(256), equalTo(192));
+        assertThat(LatencyHistogram.index(259), equalTo(192));
+        assertThat(LatencyHistogram.index(260), equalTo(193));
+        assertThat(LatencyHistogram.midpoint(128), equalTo(129L));
+        assertThat(LatencyHistogram.midpoint(191), equalTo(255L));
+        assertThat(LatencyHistogram.midpoint(192), equalTo(258L));
+    }
+
+    @Test
+    public void testIndexMonotonic() {
+        int last = -1;
+        for (long v = 0; v < 100000; v++) {
+            int idx = LatencyHistogram.index(v);
+            assertThat(idx, anyOf(equalTo(last), equalTo(last + 1)));
+            last = idx;
+        }
+        assertThat(LatencyHistogram.index(Long.MAX_VALUE), lessThan(64 << 6));
+    }
+
+    @Test
+    public void testMidpointWithinBucket() {
+        for (long v: new long[]{1000, 65535, 1000000, 123456789L, Long.MAX_VALUE >> 2}) {
+            long mid = LatencyHistogram.midpoint(LatencyHistogram.index(v));
+            assertThat(LatencyHistogram.index(mid), equalTo(LatencyHistogram.index(v)));
+            assertThat((double) Math.abs(mid - v) / v, lessThan(1.0 / 64));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram hist = new LatencyHistogram();
+        assertThat(hist.getCount(), equalTo(0L));
+        assertThat(hist.getValueAtPercentile(50), equalTo(0L));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram hist = new LatencyHistogram();
+        for (long v = 1; v <= 100; v++) {
+            hist.record(v);
+        }
+        assertThat(hist.getCount(), equalTo(100L));
+        assertThat(hist.getMax(), equalTo(100L));
+        assertThat(hist.getValueAtPercentile(50), equalTo(50L));
+        assertThat(hist.getValueAtPercentile(99), equalTo(99L));
+        assertThat(hist.getValueAtPercentile(100), equalTo(100L));
+    }
+
+    @Test
+    public void testPercentileCappedAtMax() {
+        LatencyHistogram hist = new LatencyHistogram();
+        hist.record(1000);
+        // the bucket midpoint is above the only recorded value
+        assertThat(LatencyHistogram.midpoint(LatencyHistogram.index(1000)), greaterThan(1000L));
+        assertThat(hist.getValueAtPercentile(50), equalTo(1000L));
+    }
+
+    @Test
+    public void testMerge() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        a.record(-5);
+        b.record(20);
+        b.record(30);
+        a.add(b);
+        assertThat(a.getCount(), equalTo(4L));
+        assertThat(a.getMax(), equalTo(30L));
+        assertThat(a.getValueAtPercentile(25), equalTo(0L));
+        assertThat(a.getValueAtPercentile(75), equalTo(20L));
+    }
+}
@@ -0,0 +1,111 @@
+package edu.umn.cs.recsys.snapshot;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import edu.umn.cs.recsys.dao.MOOCRatingDAO;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.grouplens.lenskit.ItemScorer;
+import org.grouplens.lenskit.baseline.ItemMeanRatingItemScorer;
+import org.grouplens.lenskit.core.LenskitConfiguration;
+import org.grouplens.lenskit.core.LenskitRecommenderEngine;
+import org.grouplens.lenskit.data.dao.EventDAO;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Round-trip tests for {@link ModelSnapshot}: a loaded snapshot must score like the engine
+ * that was written.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class ModelSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LenskitRecommenderEngine engine;
+    private LongList items;
+
+    @Before
+    public void buildEngine() throws Exception {
+        File ratings = folder.newFile("ratings.csv");
+        Files.write("1,10,4.0\n1,11,2.5\n1,12,3.0\n"
+                    + "2,10,5.0\n2,12,1.5\n"
+                    + "3,11,3.5\n3,12,2.0\n3,13,4.5\n", ratings, Charsets.UTF_8);
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(EventDAO.class).to(new MOOCRatingDAO(ratings));
+        config.bind(ItemScorer.class).to(ItemMeanRatingItemScorer.class);
+        engine = LenskitRecommenderEngine.build(config);
+        items = new LongArrayList(new long[]{10, 11, 12, 13, 14});
+    }
+
+    private void assertSameScores(LenskitRecommenderEngine loaded) {
+        ItemScorer expected = engine.createRecommender().getItemScorer();
+        ItemScorer actual = loaded.createRecommender().getItemScorer();
+        for (long user = 1; user <= 4; user++) {
+            SparseVector want = expected.score(user, items);
+            SparseVector got = actual.score(user, items);
+            assertThat(got.keySet(), equalTo(want.keySet()));
+            for (long item: want.keySet()) {
+                assertThat(got.get(item), closeTo(want.get(item), 1.0e-9));
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = new File(folder.getRoot(), "model.lksn");
+        long before = System.currentTimeMillis();
+        ModelSnapshot.write(engine, file);
+        long after = System.currentTimeMillis();
+
+        assertThat(new File(file.getPath() + ".tmp").exists(), equalTo(false));
+        ModelSnapshot snapshot = ModelSnapshot.load(file);
+        assertThat(snapshot.getTimestamp(),
+                   allOf(greaterThanOrEqualTo(before), lessThanOrEqualTo(after)));
+        assertSameScores(snapshot.getEngine());
+    }
+
+    @Test
+    public void testOverwrite() throws IOException {
+        File file = new File(folder.getRoot(), "model.lksn");
+        Files.write("stale", file, Charsets.UTF_8);
+        ModelSnapshot.write(engine, file);
+        assertSameScores(ModelSnapshot.load(file).getEngine());
+    }
+
+    @Test
+    public void testSwap() throws IOException {
+        File first = new File(folder.getRoot(), "first.lksn");
+        File second = new File(folder.getRoot(), "second.lksn");
+        ModelSnapshot.write(engine, first);
+        ModelSnapshot.write(engine, second);
+        SnapshotRecommenderSource source = SnapshotRecommenderSource.load(first);
+        ModelSnapshot old = source.getSnapshot();
+        assertThat(source.swap(second), sameInstance(old));
+        assertThat(source.getSnapshot(), not(sameInstance(old)));
+        assertSameScores(source.getSnapshot().getEngine());
+    }
+
+    @Test
+    public void testNotSnapshot() throws IOException {
+        File file = folder.newFile("garbage.lksn");
+        Files.write("not a snapshot at all", file, Charsets.UTF_8);
+        try {
+            ModelSnapshot.load(file);
+            fail("loaded a file that is not a snapshot");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("not a model snapshot"));
+        }
+    }
+}